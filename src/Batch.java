@@ -0,0 +1,278 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Batch mode: runs many scripts in one JVM, so that they all share one warm-up, with lexing, parsing and running as
+ * the stages of a pipeline.
+ * <p>
+ * Each stage has its own worker threads, and hands each script on to the next stage through a bounded queue, so that
+ * one script can be lexed while another is parsed and a third runs, without a fast stage getting arbitrarily far
+ * ahead of a slow one. The parse stage resolves and type checks the script too, against a global Symbol Table of its
+ * own, which the script then runs in. A script that fails in one stage is passed through the rest and reported.
+ * <p>
+ * Scripts are handed to the run stage in the order of their paths, however many lexers and parsers finish them out of
+ * order: a script that is parsed early waits until every script before it has been handed on. To keep those that
+ * wait from piling up, only so many scripts are let into the pipeline before the first of them has finished.
+ * <p>
+ * Every script prints to the same Interpreter.OUT, which is flushed after each script. With one runner, which is the
+ * default, scripts run, print and are reported one after another in the order of their paths. With more than one,
+ * they still start in that order, but the lines of scripts running at the same time can interleave, and they are
+ * reported as they finish.
+ */
+public class Batch {
+  /**
+   * The marker that follows the last script through a queue.
+   */
+  private static final Job END = new Job(null, -1);
+
+  private final int lexers;
+  private final int parsers;
+  private final int runners;
+  private final int capacity;
+
+  /**
+   * @param lexers   The number of threads lexing scripts.
+   * @param parsers  The number of threads parsing, resolving and type checking scripts.
+   * @param runners  The number of threads running scripts.
+   * @param capacity How many scripts each queue between two stages holds before the stage before it waits.
+   */
+  public Batch(int lexers, int parsers, int runners, int capacity) {
+    if (lexers < 1 || parsers < 1 || runners < 1 || capacity < 1) {
+      throw new IllegalStateException("Batch::new - Every stage needs at least one thread, and every queue room for one script");
+    }
+    this.lexers = lexers;
+    this.parsers = parsers;
+    this.runners = runners;
+    this.capacity = capacity;
+  }
+
+  /**
+   * Reads paths from in, one per line until it runs out; a directory stands for every file under it.
+   * @return The paths of the scripts to run, in order.
+   */
+  public static List<String> readPaths(BufferedReader in) throws IOException {
+    List<String> paths = new ArrayList<>();
+    for (String line = in.readLine(); line != null; line = in.readLine()) {
+      if (line.isBlank()) {
+        continue;
+      }
+      Path path = Paths.get(line.strip());
+      if (!Files.isDirectory(path)) {
+        paths.add(path.toString());
+        continue;
+      }
+      try (Stream<Path> files = Files.walk(path)) {
+        files.filter(Files::isRegularFile).map(Path::toString).sorted().forEach(paths::add);
+      }
+    }
+    return paths;
+  }
+
+  /**
+   * Runs every script in paths, printing a line to report for each one as it finishes, then the totals.
+   * @return The number of scripts that failed.
+   */
+  public int run(List<String> paths, PrintStream report) throws InterruptedException {
+    BlockingQueue<Job> toLex = new ArrayBlockingQueue<>(capacity);
+    BlockingQueue<Job> toParse = new ArrayBlockingQueue<>(capacity);
+    BlockingQueue<Job> toOrder = new ArrayBlockingQueue<>(capacity);
+    BlockingQueue<Job> toRun = new ArrayBlockingQueue<>(capacity);
+    BlockingQueue<Job> done = new ArrayBlockingQueue<>(capacity);
+    // room for a script in every queue and every worker, so that the window only bounds the scripts left waiting
+    Semaphore window = new Semaphore(4 * capacity + lexers + parsers + runners + 1);
+
+    long start = System.nanoTime();
+    List<Thread> threads = new ArrayList<>();
+    threads.add(thread("batch-feed", () -> {
+      for (int i = 0; i < paths.size(); i++) {
+        acquire(window);
+        put(toLex, new Job(paths.get(i), i));
+      }
+      put(toLex, END);
+    }));
+    threads.addAll(stage("lex", lexers, toLex, toParse, Batch::lex));
+    threads.addAll(stage("parse", parsers, toParse, toOrder, Batch::parse));
+    threads.add(thread("batch-order", () -> order(toOrder, toRun)));
+    threads.addAll(stage("run", runners, toRun, done, Batch::execute));
+    for (Thread thread : threads) {
+      thread.start();
+    }
+
+    int failed = 0;
+    long chars = 0;
+    long lexNanos = 0;
+    long parseNanos = 0;
+    long runNanos = 0;
+    for (Job job = done.take(); job != END; job = done.take()) {
+      window.release();
+      if (job.error != null) {
+        failed++;
+        report.println(job.path + ": failed to " + job.failedStage + ": " + job.error);
+      } else {
+        report.printf("%s: ok, lex %.2f ms, parse %.2f ms, run %.2f ms%n", job.path, job.lexNanos / 1e6, job.parseNanos / 1e6, job.runNanos / 1e6);
+      }
+      chars += job.chars;
+      lexNanos += job.lexNanos;
+      parseNanos += job.parseNanos;
+      runNanos += job.runNanos;
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    double seconds = (System.nanoTime() - start) / 1e9;
+    report.printf("%d scripts (%d failed) in %.3f s: %.1f scripts/s, %.2f MB of source/s%n",
+        paths.size(), failed, seconds, paths.size() / seconds, chars / 1e6 / seconds);
+    report.printf("time in each stage, over all threads: lex %.1f ms, parse %.1f ms, run %.1f ms%n",
+        lexNanos / 1e6, parseNanos / 1e6, runNanos / 1e6);
+    return failed;
+  }
+
+  /**
+   * @return The threads of a stage, which take scripts from in, do work on each one that has not failed yet, and put
+   *         it on out. The last of them to see END puts it on out.
+   */
+  private static List<Thread> stage(String name, int workers, BlockingQueue<Job> in, BlockingQueue<Job> out, Consumer<Job> work) {
+    AtomicInteger running = new AtomicInteger(workers);
+    List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < workers; i++) {
+      threads.add(thread("batch-" + name + "-" + i, () -> {
+        for (Job job = take(in); job != END; job = take(in)) {
+          if (job.error == null) {
+            try {
+              work.accept(job);
+            } catch (Throwable e) {
+              // any failure, an Error included, fails only this script; the worker has to live on to pass END along
+              job.error = e;
+              job.failedStage = name;
+            }
+          }
+          put(out, job);
+        }
+        // leave END for the other threads of this stage
+        put(in, END);
+        if (running.decrementAndGet() == 0) {
+          put(out, END);
+        }
+      }));
+    }
+    return threads;
+  }
+
+  /**
+   * Takes scripts from in as they come, and puts them on out in the order of their paths, followed by END.
+   */
+  private static void order(BlockingQueue<Job> in, BlockingQueue<Job> out) {
+    PriorityQueue<Job> waiting = new PriorityQueue<>(Comparator.comparingInt((Job job) -> job.sequence));
+    int next = 0;
+    for (Job job = take(in); job != END; job = take(in)) {
+      waiting.add(job);
+      while (!waiting.isEmpty() && waiting.peek().sequence == next) {
+        put(out, waiting.poll());
+        next++;
+      }
+    }
+    put(out, END);
+  }
+
+  private static void lex(Job job) {
+    long start = System.nanoTime();
+    Lexer.State state = new Lexer.State(job.path);
+    job.chars = state.length;
+    job.tokens = Lexer.lex(state);
+    job.lexNanos = System.nanoTime() - start;
+  }
+
+  private static void parse(Job job) {
+    long start = System.nanoTime();
+    job.global = Main.makeGlobal();
+    job.ast = TypeChecker.check(Resolver.resolve(Parser.parse(job.tokens)), job.global);
+    job.tokens = null;
+    job.parseNanos = System.nanoTime() - start;
+  }
+
+  private static void execute(Job job) {
+    long start = System.nanoTime();
+    try {
+      Interpreter.interpret(job.global, job.ast);
+    } finally {
+      Interpreter.OUT.flush();
+      job.global = null;
+      job.ast = null;
+      job.runNanos = System.nanoTime() - start;
+    }
+  }
+
+  private static Thread thread(String name, Runnable body) {
+    Thread thread = new Thread(body, name);
+    thread.setDaemon(true);
+    return thread;
+  }
+
+  private static void acquire(Semaphore semaphore) {
+    try {
+      semaphore.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Batch::acquire - Interrupted", e);
+    }
+  }
+
+  private static Job take(BlockingQueue<Job> queue) {
+    try {
+      return queue.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Batch::take - Interrupted", e);
+    }
+  }
+
+  private static void put(BlockingQueue<Job> queue, Job job) {
+    try {
+      queue.put(job);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Batch::put - Interrupted", e);
+    }
+  }
+
+  /**
+   * A script on its way through the pipeline. Each stage fills in what it made, and drops what the stages after it
+   * no longer need.
+   */
+  private static class Job {
+    public final String path;
+    /**
+     * The index of path among the paths of the batch.
+     */
+    public final int sequence;
+    public int chars;
+    public List<Lexer.Token> tokens;
+    public Parser.Node ast;
+    public Interpreter.SymbolTable global;
+    public long lexNanos;
+    public long parseNanos;
+    public long runNanos;
+    public Throwable error;
+    public String failedStage;
+
+    public Job(String path, int sequence) {
+      this.path = path;
+      this.sequence = sequence;
+    }
+  }
+}
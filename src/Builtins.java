@@ -0,0 +1,213 @@
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Parameter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Registers static Java methods as builtin functions, so that a builtin is written as a plain method taking and
+ * returning Interpreter.Values, and is called through a MethodHandle with its arguments as they are, without a Symbol
+ * Table.
+ * <p>
+ * Every method marked with Export becomes one builtin function for each combination of the types its parameters
+ * accept, named as the method unless Export gives a name, so a Java overload (or a parameter accepting more than one
+ * type) becomes a language overload with its own mangled name. The types a parameter accepts follow from its Java
+ * class: an Interpreter.ArrayValue accepts both <array> and <list>, and an Interpreter.Value accepts every type, unless
+ * Of narrows them. The type the builtin returns, for the TypeChecker, follows from the method's Java return type in
+ * the same way: an Interpreter.Value return type means one that is not always the same, and void returns <void>.
+ */
+public class Builtins {
+  /**
+   * Marks a static method to register as a builtin function.
+   */
+  @Retention(RetentionPolicy.RUNTIME)
+  @Target(ElementType.METHOD)
+  public @interface Export {
+    /**
+     * @return The name of the builtin, or "" for the name of the method (which cannot be a Java keyword such as int).
+     */
+    String name() default "";
+  }
+
+  /**
+   * Narrows the types that a parameter of an exported method accepts.
+   */
+  @Retention(RetentionPolicy.RUNTIME)
+  @Target(ElementType.PARAMETER)
+  public @interface Of {
+    Interpreter.Value.Type[] value();
+  }
+
+  private static final Map<Class<?>, List<Interpreter.Value.Type>> TYPES = Map.ofEntries(
+      Map.entry(Interpreter.Value.class, List.of(Interpreter.Value.Type.values())),
+      Map.entry(Interpreter.IntegerValue.class, List.of(Interpreter.Value.Type.Integer)),
+      Map.entry(Interpreter.StringValue.class, List.of(Interpreter.Value.Type.String)),
+      Map.entry(Interpreter.VoidValue.class, List.of(Interpreter.Value.Type.Void)),
+      Map.entry(Interpreter.ArrayValue.class, List.of(Interpreter.Value.Type.Array, Interpreter.Value.Type.List)),
+      Map.entry(Interpreter.ListValue.class, List.of(Interpreter.Value.Type.List)),
+      Map.entry(Interpreter.MapValue.class, List.of(Interpreter.Value.Type.Map)),
+      Map.entry(Interpreter.TaskValue.class, List.of(Interpreter.Value.Type.Task)),
+      Map.entry(Interpreter.ChannelValue.class, List.of(Interpreter.Value.Type.Channel)),
+      Map.entry(Interpreter.FileValue.class, List.of(Interpreter.Value.Type.File)),
+      Map.entry(Interpreter.BuilderValue.class, List.of(Interpreter.Value.Type.Builder)),
+      Map.entry(Interpreter.GeneratorValue.class, List.of(Interpreter.Value.Type.Generator)));
+
+  /**
+   * Adds every method of lookup's class marked with Export to global.
+   * @param global The Symbol Table to add the builtins to.
+   * @param lookup A lookup of the class declaring the methods, from MethodHandles.lookup(), so that they can be private.
+   * @throws IllegalStateException if an exported method is not static, takes or returns something other than
+   *         Interpreter.Values, or registers the same builtin as another.
+   */
+  public static void register(Interpreter.SymbolTable global, MethodHandles.Lookup lookup) {
+    Set<String> registered = new HashSet<>();
+    for (Method method : lookup.lookupClass().getDeclaredMethods()) {
+      Export export = method.getAnnotation(Export.class);
+      if (export == null) {
+        continue;
+      }
+      if (!Modifier.isStatic(method.getModifiers())) {
+        throw new IllegalStateException("Builtins::register - Tried to export " + method + ", which is not static");
+      }
+      String name = export.name().isEmpty() ? method.getName() : export.name();
+      Interpreter.Value.Type returns = method.getReturnType() == void.class ? Interpreter.Value.Type.Void : returnType(method);
+      Interpreter.Builtin body = adapt(method, lookup);
+      for (List<Interpreter.Value.Type> args : overloads(method)) {
+        String id = Interpreter.FunctionValue.mangleName(name, args);
+        if (!registered.add(id)) {
+          throw new IllegalStateException("Builtins::register - Tried to register " + id + " twice, the second time from " + method);
+        }
+        global.addBuiltinFunc(name, args, returns, body);
+      }
+    }
+  }
+
+  /**
+   * @return The type that method always returns, or null if it is Interpreter.Value.
+   */
+  private static Interpreter.Value.Type returnType(Method method) {
+    Class<?> type = method.getReturnType();
+    if (type == Interpreter.Value.class) {
+      return null;
+    }
+    if (!TYPES.containsKey(type)) {
+      throw new IllegalStateException("Builtins::register - Tried to export " + method + ", which returns a " + type.getSimpleName());
+    }
+    return TYPES.get(type).get(0);
+  }
+
+  /**
+   * @return Every list of argument types that method accepts.
+   */
+  private static List<List<Interpreter.Value.Type>> overloads(Method method) {
+    List<List<Interpreter.Value.Type>> overloads = new ArrayList<>();
+    overloads.add(List.of());
+    for (Parameter parameter : method.getParameters()) {
+      List<Interpreter.Value.Type> accepted = TYPES.get(parameter.getType());
+      if (accepted == null) {
+        throw new IllegalStateException("Builtins::register - Tried to export " + method + ", which takes a " + parameter.getType().getSimpleName());
+      }
+      Of of = parameter.getAnnotation(Of.class);
+      if (of != null) {
+        for (Interpreter.Value.Type type : of.value()) {
+          if (!accepted.contains(type)) {
+            throw new IllegalStateException("Builtins::register - Tried to export " + method + ", whose " + parameter.getType().getSimpleName() + " parameter cannot be a " + type);
+          }
+        }
+        accepted = List.of(of.value());
+      }
+      List<List<Interpreter.Value.Type>> longer = new ArrayList<>();
+      for (List<Interpreter.Value.Type> overload : overloads) {
+        for (Interpreter.Value.Type type : accepted) {
+          List<Interpreter.Value.Type> args = new ArrayList<>(overload);
+          args.add(type);
+          longer.add(List.copyOf(args));
+        }
+      }
+      overloads = longer;
+    }
+    return overloads;
+  }
+
+  /**
+   * @return A body that calls method with its arguments. Up to three arguments are passed straight from the list to
+   *         the method handle, without an array to spread them from.
+   */
+  private static Interpreter.Builtin adapt(Method method, MethodHandles.Lookup lookup) {
+    MethodHandle handle;
+    try {
+      handle = lookup.unreflect(method);
+    } catch (IllegalAccessException e) {
+      throw new IllegalStateException("Builtins::register - Could not access " + method, e);
+    }
+    if (method.getReturnType() == void.class) {
+      handle = MethodHandles.filterReturnValue(handle, MethodHandles.constant(Interpreter.Value.class, Interpreter.VoidValue.VOID));
+    }
+    int arity = method.getParameterCount();
+    MethodHandle exact = handle.asType(MethodType.methodType(Interpreter.Value.class, Collections.nCopies(arity, Interpreter.Value.class)));
+    return switch (arity) {
+      case 0 -> (args) -> {
+        try {
+          return (Interpreter.Value) exact.invokeExact();
+        } catch (Throwable e) {
+          throw unchecked(e);
+        }
+      };
+      case 1 -> (args) -> {
+        try {
+          return (Interpreter.Value) exact.invokeExact(args.get(0));
+        } catch (Throwable e) {
+          throw unchecked(e);
+        }
+      };
+      case 2 -> (args) -> {
+        try {
+          return (Interpreter.Value) exact.invokeExact(args.get(0), args.get(1));
+        } catch (Throwable e) {
+          throw unchecked(e);
+        }
+      };
+      case 3 -> (args) -> {
+        try {
+          return (Interpreter.Value) exact.invokeExact(args.get(0), args.get(1), args.get(2));
+        } catch (Throwable e) {
+          throw unchecked(e);
+        }
+      };
+      default -> {
+        MethodHandle spread = exact.asSpreader(Interpreter.Value[].class, arity);
+        yield (args) -> {
+          try {
+            return (Interpreter.Value) spread.invokeExact(args.toArray(new Interpreter.Value[0]));
+          } catch (Throwable e) {
+            throw unchecked(e);
+          }
+        };
+      }
+    };
+  }
+
+  /**
+   * A builtin throws what the Interpreter would, so anything unchecked is passed on as it is.
+   */
+  private static RuntimeException unchecked(Throwable e) {
+    if (e instanceof RuntimeException) {
+      return (RuntimeException) e;
+    }
+    if (e instanceof Error) {
+      throw (Error) e;
+    }
+    return new IllegalStateException("Builtins::call - " + e, e);
+  }
+}
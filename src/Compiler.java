@@ -0,0 +1,657 @@
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.stream.Stream;
+
+/**
+ * Ahead-of-time compilation of a program into a runnable JAR.
+ * <p>
+ * The program is lexed, parsed, resolved and type checked exactly as Main would before running it, then translated
+ * into the Java source of a single class, CompiledProgram. Every node becomes the Java statements that do what the
+ * Interpreter would do for it, calling the same Values, Symbol Tables and builtins, so a compiled program behaves and
+ * fails the same way as an interpreted one; only the walk over the tree, and the lookup of each node's handler, are
+ * gone. Each function body becomes a static method that runs in the Symbol Table of a call, and is handed to a
+ * FunctionValue, so closures, overloads and calls from builtins work as before.
+ * <p>
+ * The source is compiled in-process with javax.tools against the classes of this interpreter, and written to a JAR
+ * along with those classes, whose Main-Class runs the program in the Symbol Table built by Main.makeGlobal. Profiling
+ * and the safepoints of watch mode only exist in the Interpreter, and are not compiled in. Nor are the bodies of
+ * generator functions, which are suspended by walking their tree: the program carries the text of each of them, and
+ * a generator function is parsed from it and run by the Interpreter the first time it is called.
+ */
+public class Compiler {
+  public static final String CLASS_NAME = "CompiledProgram";
+
+  /**
+   * The methods of the generated class: one for each top-level expression, function body, and parallel for body.
+   */
+  private final List<Method> methods = new ArrayList<>();
+  /**
+   * The static fields of the generated class, holding the argument lists of the functions, the string constants, and
+   * the declarations of the generator functions.
+   */
+  private final List<String> fields = new ArrayList<>();
+  /**
+   * The text of the program being compiled.
+   */
+  private final String text;
+
+  private Compiler(String text) {
+    this.text = text;
+  }
+
+  /**
+   * Compiles the program at path into a runnable JAR.
+   * @param path The path of the program to compile.
+   * @param jar  Where to write the JAR.
+   * @throws IllegalStateException if the program is malformed, or the generated source does not compile.
+   */
+  public static void compile(String path, Path jar) throws IOException {
+    Lexer.State state = new Lexer.State(path);
+    List<Lexer.Token> tokens = Lexer.lex(state);
+    Parser.Node ast = TypeChecker.check(Resolver.resolve(Parser.parse(tokens)), Main.makeGlobal());
+    build(generate(ast, new String(state.text, 0, state.length)), jar);
+  }
+
+  /**
+   * Precondition: program has been resolved and type checked against the Symbol Table of Main.makeGlobal.
+   * @param program The whole program, as returned by Parser.parse.
+   * @param text    The text program was lexed from, which the bodies of generator functions are taken from.
+   * @return The Java source of CLASS_NAME, whose main method runs program.
+   */
+  public static String generate(Parser.Node program, String text) {
+    Compiler compiler = new Compiler(text);
+    Method run = new Method("run");
+    compiler.methods.add(run);
+
+    // the top-level expressions each get a method, so that a long program does not outgrow the limit on method size
+    Parser.BlockNode blockNode = (Parser.BlockNode) program;
+    boolean released = blockNode.scoped && !blockNode.retained;
+    String context = "c0";
+    if (blockNode.scoped) {
+      context = run.context();
+      run.line("Interpreter.SymbolTable " + context + " = Interpreter.SymbolTable.acquire(c0);");
+    }
+    if (released) {
+      run.open("try {");
+    }
+    for (Parser.Node expr : blockNode.exprs) {
+      Method method = compiler.method("e");
+      method.line("return " + compiler.expr(method, "c0", expr) + ";");
+      run.line(method.name + "(" + context + ");");
+    }
+    if (released) {
+      run.reopen("} finally {");
+      run.line("Interpreter.SymbolTable.release(" + context + ");");
+      run.close("}");
+    }
+    run.line("return Interpreter.VoidValue.VOID;");
+
+    StringBuilder source = new StringBuilder();
+    source.append("import java.util.Arrays;\n");
+    source.append("import java.util.List;\n");
+    source.append("import java.util.Set;\n\n");
+    source.append("public class ").append(CLASS_NAME).append(" {\n");
+    for (String field : compiler.fields) {
+      source.append("  ").append(field).append('\n');
+    }
+    source.append('\n');
+    source.append("  public static void main(String[] args) {\n");
+    source.append("    try {\n");
+    source.append("      run(Main.makeGlobal());\n");
+    source.append("    } catch (Exception e) {\n");
+    source.append("      Interpreter.OUT.flush();\n");
+    source.append("      e.printStackTrace();\n");
+    source.append("    } finally {\n");
+    source.append("      Interpreter.OUT.flush();\n");
+    source.append("    }\n");
+    source.append("  }\n");
+    for (Method method : compiler.methods) {
+      source.append('\n');
+      source.append("  private static Interpreter.Value ").append(method.name).append("(Interpreter.SymbolTable c0) {\n");
+      source.append(method.body);
+      source.append("  }\n");
+    }
+    source.append("}\n");
+    return source.toString();
+  }
+
+  /**
+   * Compiles source, the source of CLASS_NAME, and writes it to jar along with every class of this interpreter.
+   * @throws IllegalStateException if there is no Java compiler to use, or source does not compile.
+   */
+  public static void build(String source, Path jar) throws IOException {
+    JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+    if (javac == null) {
+      throw new IllegalStateException("Compiler::build - No Java compiler available; run the compiler on a JDK");
+    }
+    Path runtime = runtimeLocation();
+    Path work = Files.createTempDirectory("compiled");
+    try {
+      Path sourceFile = work.resolve(CLASS_NAME + ".java");
+      Files.writeString(sourceFile, source, StandardCharsets.UTF_8);
+      Path classes = Files.createDirectory(work.resolve("classes"));
+
+      DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+      try (StandardJavaFileManager files = javac.getStandardFileManager(diagnostics, null, StandardCharsets.UTF_8)) {
+        List<String> options = List.of("-classpath", runtime.toString(), "-d", classes.toString(), "-encoding", "UTF-8", "-nowarn");
+        boolean compiled = javac.getTask(null, files, diagnostics, options, null, files.getJavaFileObjects(sourceFile.toFile())).call();
+        if (!compiled) {
+          StringBuilder reason = new StringBuilder("Generated source did not compile:");
+          for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+            reason.append('\n').append(diagnostic.getMessage(null));
+          }
+          throw new IllegalStateException("Compiler::build - " + reason);
+        }
+      }
+
+      Manifest manifest = new Manifest();
+      manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+      manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, CLASS_NAME);
+      try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar), manifest)) {
+        Set<String> written = new HashSet<>();
+        addDirectory(out, classes, written);
+        if (Files.isDirectory(runtime)) {
+          addDirectory(out, runtime, written);
+        } else {
+          addJar(out, runtime, written);
+        }
+      }
+    } finally {
+      try (Stream<Path> paths = Files.walk(work)) {
+        for (Path it : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+          Files.deleteIfExists(it);
+        }
+      }
+    }
+  }
+
+  /**
+   * @return The directory or JAR that the classes of this interpreter were loaded from.
+   */
+  private static Path runtimeLocation() {
+    try {
+      return Paths.get(Interpreter.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+    } catch (URISyntaxException e) {
+      throw new IllegalStateException("Compiler::build - Could not locate the interpreter's classes", e);
+    }
+  }
+
+  private static void addDirectory(JarOutputStream out, Path directory, Set<String> written) throws IOException {
+    List<Path> classFiles;
+    try (Stream<Path> paths = Files.walk(directory)) {
+      classFiles = paths.filter((it) -> it.toString().endsWith(".class")).sorted().toList();
+    }
+    for (Path classFile : classFiles) {
+      String name = directory.relativize(classFile).toString().replace('\\', '/');
+      try (InputStream in = Files.newInputStream(classFile)) {
+        addEntry(out, name, in, written);
+      }
+    }
+  }
+
+  private static void addJar(JarOutputStream out, Path path, Set<String> written) throws IOException {
+    try (JarFile jar = new JarFile(path.toFile())) {
+      for (JarEntry entry : (Iterable<JarEntry>) jar.stream()::iterator) {
+        if (entry.getName().endsWith(".class")) {
+          try (InputStream in = jar.getInputStream(entry)) {
+            addEntry(out, entry.getName(), in, written);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Adds a class to out, unless one of that name has already been added; the freshly compiled program comes first,
+   * so that it wins over any CLASS_NAME left next to the interpreter's classes.
+   */
+  private static void addEntry(JarOutputStream out, String name, InputStream in, Set<String> written) throws IOException {
+    if (!written.add(name)) {
+      return;
+    }
+    out.putNextEntry(new JarEntry(name));
+    in.transferTo(out);
+    out.closeEntry();
+  }
+
+  private Method method(String prefix) {
+    Method method = new Method(prefix + methods.size());
+    methods.add(method);
+    return method;
+  }
+
+  /**
+   * Emits the statements that evaluate node into method.
+   * @param method  The method being generated.
+   * @param context The Java variable holding the Symbol Table that node runs in.
+   * @param node    The node to compile.
+   * @return A Java expression for the value of node, valid after the emitted statements.
+   * @throws IllegalStateException if node is not one this compiler supports.
+   */
+  private String expr(Method method, String context, Parser.Node node) {
+    switch (node.type) {
+      case Integer -> {
+        return method.temp("new Interpreter.IntegerValue(" + ((Parser.IntegerNode) node).value + ")");
+      }
+      case String -> {
+        String field = "STRING_" + fields.size();
+        fields.add("private static final Interpreter.StringValue " + field + " = Interpreter.StringValue.constant("
+            + literal(((Parser.StringNode) node).value) + ");");
+        return field;
+      }
+      case Interpolation -> {
+        StringBuilder values = new StringBuilder();
+        for (Parser.Node part : ((Parser.InterpolationNode) node).parts) {
+          values.append(values.length() == 0 ? "" : ", ").append(expr(method, context, part));
+        }
+        return method.temp("Interpreter.StringValue.interpolate(new Interpreter.Value[] {" + values + "})");
+      }
+      case VariableAccess -> {
+        Parser.VariableAccessNode variableAccessNode = (Parser.VariableAccessNode) node;
+        return method.temp(context + ".get(" + literal(variableAccessNode.id) + ", " + variableAccessNode.depth + ")");
+      }
+      case VariableDeclaration -> {
+        Parser.VariableDeclarationNode variableDeclarationNode = (Parser.VariableDeclarationNode) node;
+        String value = expr(method, context, variableDeclarationNode.value);
+        String checkedType = variableDeclarationNode.checkedType == null ? "null" : type(variableDeclarationNode.checkedType);
+        method.line("Interpreter.declare(" + context + ", " + literal(variableDeclarationNode.id) + ", " + checkedType + ", " + value + ");");
+        return "Interpreter.VoidValue.VOID";
+      }
+      case FunctionDeclaration -> {
+        return functionDeclaration(method, context, (Parser.FunctionDeclarationNode) node);
+      }
+      case FunctionCall -> {
+        return functionCall(method, context, (Parser.FunctionCallNode) node);
+      }
+      case Maths -> {
+        return maths(method, context, (Parser.MathNode) node);
+      }
+      case Negation -> {
+        Parser.NegationNode negationNode = (Parser.NegationNode) node;
+        String acting = expr(method, context, negationNode.acting);
+        if (negationNode.operation == Lexer.Token.Type.Not) {
+          return method.temp(acting + ".not()");
+        } else if (negationNode.operation == Lexer.Token.Type.Sub) {
+          return method.temp(acting + ".negate()");
+        } else if (negationNode.operation == Lexer.Token.Type.Add) {
+          return method.temp(acting + ".plus()");
+        }
+        throw new IllegalStateException("Compiler::expr - Invalid operation " + negationNode.operation);
+      }
+      case Index -> {
+        Parser.IndexNode indexNode = (Parser.IndexNode) node;
+        String target = expr(method, context, indexNode.target);
+        String index = expr(method, context, indexNode.index);
+        return method.temp(target + ".index(" + index + ")");
+      }
+      case Block -> {
+        return block(method, context, (Parser.BlockNode) node);
+      }
+      case If -> {
+        Parser.IfNode ifNode = (Parser.IfNode) node;
+        String result = method.declare();
+        ifBranch(method, context, ifNode, 0, result);
+        return result;
+      }
+      case For -> {
+        Parser.ForNode forNode = (Parser.ForNode) node;
+        method.open("while (true) {");
+        String condition = expr(method, context, forNode.condition);
+        method.line("if (!" + condition + ".truthy()) break;");
+        expr(method, context, forNode.body);
+        method.close("}");
+        return "Interpreter.VoidValue.VOID";
+      }
+      case ParallelFor -> {
+        return parallelFor(method, context, (Parser.ParallelForNode) node);
+      }
+      case RangeFor -> {
+        return rangeFor(method, context, (Parser.RangeForNode) node);
+      }
+      case ForIn -> {
+        return forIn(method, context, (Parser.ForInNode) node);
+      }
+      default -> throw new IllegalStateException("Compiler::expr - Cannot compile a " + node.type);
+    }
+  }
+
+  private String functionDeclaration(Method method, String context, Parser.FunctionDeclarationNode node) {
+    if (node.generator) {
+      return generatorDeclaration(method, context, node);
+    }
+    StringBuilder args = new StringBuilder();
+    for (Pair<String, String> arg : node.args) {
+      args.append(args.length() == 0 ? "" : ", ");
+      args.append("new Pair<>(").append(literal(arg.a)).append(", ").append(type(Interpreter.Value.Type.fromString(arg.b))).append(")");
+    }
+    String field = "ARGS_" + fields.size();
+    fields.add("private static final List<Pair<String, Interpreter.Value.Type>> " + field + " = List.of(" + args + ");");
+
+    Method body = method("f");
+    body.line("return " + inline(body, "c0", node.body()) + ";");
+
+    String function = method.temp("new Interpreter.FunctionValue(" + literal(node.id) + ", " + field + ", " + node.retained + ", "
+        + CLASS_NAME + "::" + body.name + ", " + context + ")", "Interpreter.FunctionValue");
+    method.line(context + ".add(" + function + ".id, " + function + ");");
+    return "Interpreter.VoidValue.VOID";
+  }
+
+  /**
+   * Emits the declaration of a generator function as one whose body is parsed from its text, then run by the
+   * Interpreter, the first time it is called; see Parser.FunctionDeclarationNode.fromText.
+   * @return Void
+   */
+  private String generatorDeclaration(Method method, String context, Parser.FunctionDeclarationNode node) {
+    StringBuilder args = new StringBuilder();
+    for (Pair<String, String> arg : node.args) {
+      args.append(args.length() == 0 ? "" : ", ");
+      args.append("new Pair<>(").append(literal(arg.a)).append(", ").append(literal(arg.b)).append(")");
+    }
+    StringBuilder enclosing = new StringBuilder();
+    for (Set<String> names : node.enclosing) {
+      StringBuilder set = new StringBuilder();
+      for (String name : new TreeSet<>(names)) {
+        set.append(set.length() == 0 ? "" : ", ").append(literal(name));
+      }
+      enclosing.append(enclosing.length() == 0 ? "" : ", ").append("Set.of(").append(set).append(")");
+    }
+    String field = "GENERATOR_" + fields.size();
+    String start = "new Position(0, " + node.bodyStart.column + ", " + node.bodyStart.row + ", " + literal(node.bodyStart.fileName) + ")";
+    fields.add("private static final Parser.FunctionDeclarationNode " + field + " = Parser.FunctionDeclarationNode.fromText("
+        + literal(node.id) + ", List.of(" + args + "), " + literal(text.substring(node.bodyStart.index, node.bodyEnd.index)) + ", "
+        + start + ", List.of(" + enclosing + "), " + node.retained + ");");
+
+    String function = method.temp("new Interpreter.FunctionValue(" + field + ", " + context + ")", "Interpreter.FunctionValue");
+    method.line(context + ".add(" + function + ".id, " + function + ");");
+    return "Interpreter.VoidValue.VOID";
+  }
+
+  private String functionCall(Method method, String context, Parser.FunctionCallNode node) {
+    List<String> args = new ArrayList<>();
+    for (Parser.Node arg : node.args) {
+      args.add(expr(method, context, arg));
+    }
+    String argList = "Arrays.asList(" + String.join(", ", args) + ")";
+    if (node.args.isEmpty()) {
+      argList = "List.of()";
+    }
+    if (node.bound != null) {
+      return method.temp(context + ".get(" + literal(node.bound) + ", " + node.depth + ").callChecked(" + context + ", " + argList + ")");
+    }
+    String values = method.temp(argList, "List<Interpreter.Value>");
+    return method.temp(context + ".get(Interpreter.FunctionValue.mangleNameCallerSide(" + literal(node.toCall) + ", " + values + "), "
+        + node.depth + ").call(" + context + ", " + values + ")");
+  }
+
+  private String maths(Method method, String context, Parser.MathNode node) {
+    if (node.operation == Lexer.Token.Type.Assign && node.left.type == Parser.Node.Type.Index) {
+      Parser.IndexNode indexNode = (Parser.IndexNode) node.left;
+      String target = expr(method, context, indexNode.target);
+      String index = expr(method, context, indexNode.index);
+      String value = expr(method, context, node.right);
+      return method.temp(target + ".assignIndex(" + index + ", " + value + ")");
+    }
+    if (node.operation == Lexer.Token.Type.OrOr || node.operation == Lexer.Token.Type.AndAnd) {
+      boolean or = node.operation == Lexer.Token.Type.OrOr;
+      String left = expr(method, context, node.left);
+      String result = method.declare();
+      method.open("if (" + (or ? "" : "!") + left + ".truthy()) {");
+      method.line(result + " = new Interpreter.IntegerValue(" + (or ? 1 : 0) + ");");
+      method.reopen("} else {");
+      String right = expr(method, context, node.right);
+      method.line(result + " = new Interpreter.IntegerValue(" + right + ".truthy() ? 1 : 0);");
+      method.close("}");
+      return result;
+    }
+    String left = expr(method, context, node.left);
+    String right = expr(method, context, node.right);
+    String call = switch (node.operation) {
+      case Add -> "add";
+      case Sub -> "sub";
+      case Mul -> "mul";
+      case Div -> "div";
+      case Mod -> "mod";
+      case Pow -> "pow";
+      case EqualsEquals, NotEquals -> "equalsEquals";
+      case LessThan -> "lessThan";
+      case LessThanEquals -> "lessThanEqualTo";
+      case GreaterThan -> "greaterThan";
+      case GreaterThanEquals -> "greaterThanEqualTo";
+      case Assign -> "assign";
+      default -> throw new IllegalStateException("Compiler::maths - Invalid operation " + node.operation);
+    };
+    return method.temp(left + "." + call + "(" + right + ")" + (node.operation == Lexer.Token.Type.NotEquals ? ".not()" : ""));
+  }
+
+  /**
+   * Emits the branch of an if statement at index, and every branch after it as its else, assigning to result.
+   */
+  private void ifBranch(Method method, String context, Parser.IfNode node, int index, String result) {
+    if (index == node.conditions.size()) {
+      String otherwise = node.otherwise == null ? "Interpreter.VoidValue.VOID" : expr(method, context, node.otherwise);
+      method.line(result + " = " + otherwise + ";");
+      return;
+    }
+    Pair<Parser.Node, Parser.Node> branch = node.conditions.get(index);
+    String condition = expr(method, context, branch.a);
+    method.open("if (" + condition + ".truthy()) {");
+    method.line(result + " = " + expr(method, context, branch.b) + ";");
+    method.reopen("} else {");
+    ifBranch(method, context, node, index + 1, result);
+    method.close("}");
+  }
+
+  private String block(Method method, String context, Parser.BlockNode node) {
+    if (node.exprs.isEmpty()) {
+      return "Interpreter.VoidValue.VOID";
+    }
+    if (!node.scoped) {
+      return inline(method, context, node);
+    }
+    String symb = method.context();
+    method.line("Interpreter.SymbolTable " + symb + " = Interpreter.SymbolTable.acquire(" + context + ");");
+    String result = method.declare();
+    if (node.retained) {
+      method.line(result + " = " + inline(method, symb, node) + ";");
+      return result;
+    }
+    method.open("try {");
+    method.line(result + " = " + inline(method, symb, node) + ";");
+    method.reopen("} finally {");
+    method.line("Interpreter.SymbolTable.release(" + symb + ");");
+    method.close("}");
+    return result;
+  }
+
+  /**
+   * Emits the expressions of a block straight into context, as Interpreter.inline runs them.
+   * @return A Java expression for the value of the last expression of the block, or Void if it is empty.
+   */
+  private String inline(Method method, String context, Parser.Node node) {
+    String result = "Interpreter.VoidValue.VOID";
+    for (Parser.Node expr : ((Parser.BlockNode) node).exprs) {
+      result = expr(method, context, expr);
+    }
+    return result;
+  }
+
+  /**
+   * Emits a counted loop as a Java for loop over an int, as Interpreter.rangeForLoop runs it.
+   * @return Void
+   */
+  private String rangeFor(Method method, String context, Parser.RangeForNode node) {
+    String from = expr(method, context, node.from);
+    String to = expr(method, context, node.to);
+    String counter = method.temp(from + ".toIntValue().value", "int");
+    String end = method.temp(to + ".toIntValue().value", "int");
+    String symb = method.context();
+    if (node.retained) {
+      method.open("for (; " + counter + " < " + end + "; " + counter + "++) {");
+      method.line("Interpreter.SymbolTable " + symb + " = Interpreter.SymbolTable.acquire(" + context + ");");
+      rangeForBody(method, symb, node, counter);
+      method.close("}");
+      return "Interpreter.VoidValue.VOID";
+    }
+    method.line("Interpreter.SymbolTable " + symb + " = Interpreter.SymbolTable.acquire(" + context + ");");
+    method.open("try {");
+    method.open("for (; " + counter + " < " + end + "; " + counter + "++) {");
+    method.line(symb + ".values.clear();");
+    rangeForBody(method, symb, node, counter);
+    method.close("}");
+    method.reopen("} finally {");
+    method.line("Interpreter.SymbolTable.release(" + symb + ");");
+    method.close("}");
+    return "Interpreter.VoidValue.VOID";
+  }
+
+  /**
+   * Emits a for in loop, taking each value from the generator in turn, as Interpreter.forInLoop runs it.
+   * @return Void
+   */
+  private String forIn(Method method, String context, Parser.ForInNode node) {
+    String generator = method.temp("Interpreter.GeneratorValue.of(" + expr(method, context, node.iterable) + ")", "Interpreter.GeneratorValue");
+    String value = method.declare();
+    String symb = method.context();
+    method.open("while ((" + value + " = " + generator + ".next()) != null) {");
+    method.line("Interpreter.SymbolTable " + symb + " = Interpreter.SymbolTable.acquire(" + context + ");");
+    if (!node.retained) {
+      method.open("try {");
+    }
+    method.line(symb + ".add(" + literal(node.id) + ", " + value + ".toVariable());");
+    inline(method, symb, node.body);
+    if (!node.retained) {
+      method.reopen("} finally {");
+      method.line("Interpreter.SymbolTable.release(" + symb + ");");
+      method.close("}");
+    }
+    method.close("}");
+    return "Interpreter.VoidValue.VOID";
+  }
+
+  private void rangeForBody(Method method, String symb, Parser.RangeForNode node, String counter) {
+    if (node.counterRead) {
+      method.line(symb + ".add(" + literal(node.id) + ", new Interpreter.IntegerValue(" + counter + "));");
+    }
+    inline(method, symb, node.body);
+  }
+
+  private String parallelFor(Method method, String context, Parser.ParallelForNode node) {
+    String from = expr(method, context, node.from);
+    String to = expr(method, context, node.to);
+    Method body = method("p");
+    body.line("return " + inline(body, "c0", node.body) + ";");
+    String reduction = node.reduction == null ? "null" : "Parser.ParallelForNode.Reduction." + node.reduction.name();
+    return method.temp("Interpreter.parallelFor(" + context + ", " + literal(node.id) + ", " + from + ".toIntValue().value, "
+        + to + ".toIntValue().value, " + reduction + ", " + node.retained + ", " + CLASS_NAME + "::" + body.name + ")");
+  }
+
+  private static String type(Interpreter.Value.Type type) {
+    return "Interpreter.Value.Type." + type.name();
+  }
+
+  /**
+   * @return s as a Java string literal. Control characters are written as octal escapes, since a unicode escape of
+   *         a line break would end the literal.
+   */
+  private static String literal(String s) {
+    StringBuilder literal = new StringBuilder("\"");
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c == '"' || c == '\\') {
+        literal.append('\\').append(c);
+      } else if (c < 0x20 || c == 0x7f) {
+        literal.append(String.format("\\%03o", (int) c));
+      } else {
+        literal.append(c);
+      }
+    }
+    return literal.append('"').toString();
+  }
+
+  /**
+   * The body of a generated method, built up statement by statement. Every temporary and Symbol Table gets a name
+   * of its own, so that names never clash across the nested Java blocks of an if or a loop.
+   */
+  private static class Method {
+    public final String name;
+    public final StringBuilder body = new StringBuilder();
+    private int indent = 2;
+    private int temps;
+    private int contexts = 1;
+
+    public Method(String name) {
+      this.name = name;
+    }
+
+    /**
+     * @return The name of a new temporary holding value.
+     */
+    public String temp(String value) {
+      return temp(value, "Interpreter.Value");
+    }
+
+    public String temp(String value, String type) {
+      String temp = "t" + temps++;
+      line(type + " " + temp + " = " + value + ";");
+      return temp;
+    }
+
+    /**
+     * @return The name of a new temporary that is assigned later.
+     */
+    public String declare() {
+      String temp = "t" + temps++;
+      line("Interpreter.Value " + temp + ";");
+      return temp;
+    }
+
+    /**
+     * @return A new name for a Symbol Table.
+     */
+    public String context() {
+      return "c" + contexts++;
+    }
+
+    public void line(String line) {
+      body.append("  ".repeat(indent)).append(line).append('\n');
+    }
+
+    public void open(String line) {
+      line(line);
+      indent++;
+    }
+
+    public void reopen(String line) {
+      indent--;
+      line(line);
+      indent++;
+    }
+
+    public void close(String line) {
+      indent--;
+      line(line);
+    }
+  }
+}
@@ -0,0 +1,218 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A source file that is kept lexed and parsed across edits, for editors and watch mode.
+ * <p>
+ * The text is split into items, one per top-level expression (most often a function declaration). Each item owns the
+ * text from its first token up to the first token of the next item, so the items tile the whole text, and it keeps
+ * its own tokens and its own Node. An edit re-lexes and re-parses only the items it touches; every other item keeps
+ * its tokens and Node as they were, and only has its positions moved.
+ */
+public class Document {
+  public final String fileName;
+  private char[] text;
+  private int length;
+  private final List<Item> items;
+
+  /**
+   * @throws IllegalStateException if the text is not a well-formed program.
+   */
+  public Document(String fileName, String text) {
+    this.fileName = fileName;
+    this.text = text.replace("\r\n", "\n").toCharArray();
+    this.length = this.text.length;
+    this.items = new ArrayList<>();
+    Lexer.State state = new Lexer.State(this.text, length, new Position(0, 1, 1, fileName));
+    items.addAll(parseItems(Lexer.lex(state), 0));
+  }
+
+  public String text() {
+    return new String(text, 0, length);
+  }
+
+  public List<Item> items() {
+    return items;
+  }
+
+  /**
+   * @return The Abstract Syntax Tree (AST) of the whole document; the Nodes of the items are shared, not copied.
+   */
+  public Parser.Node program() {
+    List<Parser.Node> exprs = new ArrayList<>(items.size());
+    for (Item item : items) {
+      exprs.add(item.node);
+    }
+    return new Parser.BlockNode(exprs);
+  }
+
+  /**
+   * Replaces the text in [start, end) with replacement, then re-lexes and re-parses the items that the edit touched.
+   * If those items no longer form whole expressions on their own (say, an <End> was deleted), neighbouring items are
+   * pulled in one at a time until they do. The document is left unchanged if even the whole text does not parse.
+   * @return The items that replaced the ones touched by the edit.
+   * @throws IllegalArgumentException if [start, end) is not a range in the text.
+   * @throws IllegalStateException if the edited text is not a well-formed program.
+   */
+  public List<Item> edit(int start, int end, String replacement) {
+    if (start < 0 || end > length || start > end) {
+      throw new IllegalArgumentException("Document::edit - Range [" + start + ", " + end + ") out of bounds for length " + length);
+    }
+    replacement = replacement.replace("\r\n", "\n");
+    String removed = splice(start, end, replacement);
+    int delta = replacement.length() - removed.length();
+
+    if (items.isEmpty()) {
+      try {
+        Lexer.State state = new Lexer.State(text, length, new Position(0, 1, 1, fileName));
+        items.addAll(parseItems(Lexer.lex(state), 0));
+        return items;
+      } catch (IllegalStateException e) {
+        splice(start, start + replacement.length(), removed);
+        throw e;
+      }
+    }
+
+    // the item before the edit is included too, since the edit may have joined a token onto its last one
+    int first = itemAt(Math.max(start - 1, 0));
+    int last = itemAt(end);
+    while (true) {
+      // a line comment could run past the end of the region unless the region ends a line; strings and block
+      // comments can too, but those make Lexer.lex throw, which pulls in the next item below
+      while (last + 1 < items.size() && text[items.get(last + 1).start + delta - 1] != '\n') {
+        last++;
+      }
+      int regionStart = items.get(first).start;
+      int regionEnd = last + 1 < items.size() ? items.get(last + 1).start + delta : length;
+      Lexer.State state = new Lexer.State(text, regionEnd, startOf(first));
+      List<Item> parsed = null;
+      IllegalStateException error = null;
+      try {
+        parsed = parseItems(Lexer.lex(state), regionStart);
+      } catch (IllegalStateException e) {
+        error = e;
+      }
+
+      boolean wholeDocument = first == 0 && last == items.size() - 1;
+      if (parsed != null && (!parsed.isEmpty() || wholeDocument)) {
+        replace(first, last, parsed, state.pos, delta);
+        return parsed;
+      } else if (last + 1 < items.size()) {
+        last++;
+      } else if (first > 0) {
+        first--;
+      } else {
+        splice(start, start + replacement.length(), removed);
+        throw error != null ? error : new IllegalStateException("Document::edit - Edit left no expressions behind");
+      }
+    }
+  }
+
+  /**
+   * Replaces the text in [start, end) with replacement, without touching the items.
+   * @return The text that was replaced.
+   */
+  private String splice(int start, int end, String replacement) {
+    String removed = new String(text, start, end - start);
+    int delta = replacement.length() - removed.length();
+    if (length + delta > text.length) {
+      text = Arrays.copyOf(text, Math.max(length + delta, text.length * 2));
+    }
+    System.arraycopy(text, end, text, end + delta, length - end);
+    replacement.getChars(0, replacement.length(), text, start);
+    length += delta;
+    return removed;
+  }
+
+  /**
+   * @return The index of the item whose text contains index.
+   */
+  private int itemAt(int index) {
+    int low = 0;
+    int high = items.size() - 1;
+    while (low < high) {
+      int mid = (low + high + 1) / 2;
+      if (items.get(mid).start <= index) {
+        low = mid;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * @return The position the item at index starts at. Items other than the first start at their first token.
+   */
+  private Position startOf(int index) {
+    if (index == 0) {
+      return new Position(0, 1, 1, fileName);
+    }
+    return items.get(index).tokens.get(0).pos.copy();
+  }
+
+  /**
+   * Replaces items [first, last] with parsed, and moves every item after them by the change in the position of the
+   * end of the region they were parsed from.
+   * @param end   The position the region that was parsed now ends at.
+   * @param delta The change in the length of the text.
+   */
+  private void replace(int first, int last, List<Item> parsed, Position end, int delta) {
+    if (last + 1 < items.size()) {
+      Position oldEnd = items.get(last + 1).tokens.get(0).pos;
+      int oldRow = oldEnd.row;
+      int rowDelta = end.row - oldEnd.row;
+      int columnDelta = end.column - oldEnd.column;
+      for (int i = last + 1; i < items.size(); i++) {
+        Item item = items.get(i);
+        item.start += delta;
+        for (Lexer.Token token : item.tokens) {
+          if (token.pos.row == oldRow) {
+            token.pos.column += columnDelta;
+          }
+          token.pos.row += rowDelta;
+          token.pos.index += delta;
+        }
+      }
+    }
+    items.subList(first, last + 1).clear();
+    items.addAll(first, parsed);
+  }
+
+  /**
+   * Splits a list of tokens into items, one per top-level expression.
+   * @param tokens      The tokens to split, ending with Lexer.Token.EOF.
+   * @param regionStart The index in the text that the first item starts at.
+   * @throws IllegalStateException if the tokens are not a sequence of whole expressions.
+   */
+  private static List<Item> parseItems(List<Lexer.Token> tokens, int regionStart) {
+    Parser.State s = new Parser.State(tokens);
+    List<Item> parsed = new ArrayList<>();
+    while (s.cur().type != Lexer.Token.Type.EndOfFile) {
+      int first = s.index;
+      Parser.Node node = Resolver.resolve(Parser.expr(s));
+      if (s.cur().type == Lexer.Token.Type.Newline) {
+        s.adv();
+      }
+      int start = parsed.isEmpty() ? regionStart : tokens.get(first).pos.index;
+      parsed.add(new Item(start, new ArrayList<>(tokens.subList(first, s.index)), node));
+    }
+    return parsed;
+  }
+
+  /**
+   * A top-level expression of the document, along with the tokens it was parsed from.
+   */
+  public static class Item {
+    public int start;
+    public final List<Lexer.Token> tokens;
+    public final Parser.Node node;
+
+    public Item(int start, List<Lexer.Token> tokens, Parser.Node node) {
+      this.start = start;
+      this.tokens = tokens;
+      this.node = node;
+    }
+  }
+}
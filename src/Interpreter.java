@@ -1,13 +1,130 @@
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Objects;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
 import java.util.function.BiFunction;
 import java.util.function.Function;
 
 public class Interpreter {
   public static final HashMap<Parser.Node.Type, BiFunction<SymbolTable, Parser.Node, Value>> CALLS = makeCalls();
 
+  /**
+   * Everything the program prints goes through here, so that it is encoded straight into one large buffer instead of
+   * going through System.out, which flushes on every line.
+   */
+  public static final Output OUT = new Output(new FileOutputStream(FileDescriptor.out).getChannel(), 1 << 16, 100_000_000L);
+
+  /**
+   * Whether to count the branches taken by if statements, and how often && and || skip their right side. The counts
+   * are kept on the nodes themselves; they are not synchronized, so they are approximate for nodes that run on several
+   * threads at once.
+   */
+  public static boolean profile = false;
+  /**
+   * The nodes that have counts, possibly more than once each.
+   */
+  private static final ConcurrentLinkedQueue<Parser.Node> PROFILED = new ConcurrentLinkedQueue<>();
+
+  /**
+   * Prints the counts gathered while profiling, one line per node, in the order the nodes appear in the source.
+   * @param out Where to print the counts.
+   */
+  public static void dumpProfile(PrintStream out) {
+    List<Parser.Node> nodes = new ArrayList<>(new LinkedHashSet<>(PROFILED));
+    nodes.sort(Comparator.comparing((Parser.Node node) -> positionOf(node).fileName)
+        .thenComparingInt((node) -> positionOf(node).row)
+        .thenComparingInt((node) -> positionOf(node).column));
+    for (Parser.Node node : nodes) {
+      Position pos = positionOf(node);
+      StringBuilder line = new StringBuilder(pos.fileName + ":" + pos.row + ":" + pos.column);
+      if (node.type == Parser.Node.Type.If) {
+        Parser.IfNode ifNode = (Parser.IfNode) node;
+        line.append(" if:");
+        for (int i = 0; i < ifNode.conditions.size(); i++) {
+          line.append(" branch ").append(i + 1).append(" taken ").append(ifNode.taken[i]).append(',');
+        }
+        line.append(ifNode.otherwise == null ? " none taken " : " else taken ").append(ifNode.taken[ifNode.conditions.size()]);
+      } else {
+        Parser.MathNode mathNode = (Parser.MathNode) node;
+        line.append(mathNode.operation == Lexer.Token.Type.OrOr ? " ||:" : " &&:")
+            .append(" right side evaluated ").append(mathNode.rightEvaluated)
+            .append(", skipped ").append(mathNode.rightSkipped);
+      }
+      out.println(line);
+    }
+  }
+
+  private static Position positionOf(Parser.Node node) {
+    return node.type == Parser.Node.Type.If ? ((Parser.IfNode) node).pos : ((Parser.MathNode) node).pos;
+  }
+
+  /**
+   * Work handed to the interpreter by other threads, such as the function reloads of watch mode. It is run at the next
+   * safepoint, the start of a function call or of a loop iteration, so it never runs in the middle of a statement.
+   * Only the thread given to runSafepointsOn runs it, so that it never writes to a Symbol Table while a parallel for
+   * loop or a spawned task on another thread is reading it; the other threads pass their safepoints by.
+   */
+  private static final ConcurrentLinkedQueue<Runnable> SAFEPOINT_TASKS = new ConcurrentLinkedQueue<>();
+  private static volatile boolean safepointPending = false;
+  private static volatile Thread safepointThread = null;
+
+  /**
+   * @param task The work to run at the next safepoint reached by the thread given to runSafepointsOn.
+   */
+  public static void runAtSafepoint(Runnable task) {
+    SAFEPOINT_TASKS.add(task);
+    safepointPending = true;
+  }
+
+  /**
+   * @param thread The thread running the program, which is the only one to run the work given to runAtSafepoint.
+   */
+  public static void runSafepointsOn(Thread thread) {
+    safepointThread = thread;
+  }
+
+  private static void runSafepointTasks() {
+    if (Thread.currentThread() != safepointThread) {
+      return;
+    }
+    // cleared before draining, so a task added while draining raises the flag again rather than being missed
+    safepointPending = false;
+    for (Runnable task = SAFEPOINT_TASKS.poll(); task != null; task = SAFEPOINT_TASKS.poll()) {
+      task.run();
+    }
+  }
+
   /**
    * @return The HashMap container that maps the Nodes' types to the Interpreter functions that execute them.
    */
@@ -15,6 +132,7 @@ public class Interpreter {
     HashMap<Parser.Node.Type, BiFunction<SymbolTable, Parser.Node, Value>> calls = new HashMap<>();
     calls.put(Parser.Node.Type.Integer, Interpreter::integer);
     calls.put(Parser.Node.Type.String, Interpreter::string);
+    calls.put(Parser.Node.Type.Interpolation, Interpreter::interpolation);
     calls.put(Parser.Node.Type.FunctionDeclaration, Interpreter::functionDeclaration);
     calls.put(Parser.Node.Type.Block, Interpreter::block);
     calls.put(Parser.Node.Type.VariableDeclaration, Interpreter::variableDeclaration);
@@ -24,6 +142,11 @@ public class Interpreter {
     calls.put(Parser.Node.Type.Negation, Interpreter::negation);
     calls.put(Parser.Node.Type.If, Interpreter::ifStatement);
     calls.put(Parser.Node.Type.For, Interpreter::forLoop);
+    calls.put(Parser.Node.Type.Index, Interpreter::index);
+    calls.put(Parser.Node.Type.ParallelFor, Interpreter::parallelForLoop);
+    calls.put(Parser.Node.Type.ForIn, Interpreter::forInLoop);
+    calls.put(Parser.Node.Type.RangeFor, Interpreter::rangeForLoop);
+    calls.put(Parser.Node.Type.Yield, Interpreter::yieldStatement);
     return calls;
   }
 
@@ -41,10 +164,25 @@ public class Interpreter {
    * Precondition: node.type == Parser.Node.Type.String
    * @param context The interpreter's current Symbol Table.
    * @param node The node to execute.
-   * @return The value corresponding to the Parser.StringNode passed in.
+   * @return The constant of the Parser.StringNode passed in, which every evaluation of it shares.
    */
   private static Value string(SymbolTable context, Parser.Node node) {
-    return new StringValue(((Parser.StringNode)node).value);
+    return ((Parser.StringNode)node).constant;
+  }
+
+  /**
+   * Precondition: node.type == Parser.Node.Type.Interpolation
+   * @param context The interpreter's current Symbol Table.
+   * @param node The node to execute.
+   * @return A new string of the parts of the Parser.InterpolationNode passed in, one after another.
+   */
+  private static Value interpolation(SymbolTable context, Parser.Node node) {
+    List<Parser.Node> parts = ((Parser.InterpolationNode) node).parts;
+    Value[] values = new Value[parts.size()];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = interpret(context, parts.get(i));
+    }
+    return StringValue.interpolate(values);
   }
 
   /**
@@ -56,7 +194,7 @@ public class Interpreter {
    */
   public static Value functionDeclaration(SymbolTable context, Parser.Node node) {
     Parser.FunctionDeclarationNode functionDeclarationNode = (Parser.FunctionDeclarationNode) node;
-    FunctionValue func = new FunctionValue(functionDeclarationNode);
+    FunctionValue func = new FunctionValue(functionDeclarationNode, context);
     context.add(func.id, func);
     return VoidValue.VOID;
   }
@@ -70,10 +208,23 @@ public class Interpreter {
    */
   public static Value variableDeclaration(SymbolTable context, Parser.Node node) {
     Parser.VariableDeclarationNode variableDeclarationNode = (Parser.VariableDeclarationNode) node;
-    context.add(variableDeclarationNode.id, interpret(context, variableDeclarationNode.value));
+    Value value = interpret(context, variableDeclarationNode.value);
+    declare(context, variableDeclarationNode.id, variableDeclarationNode.checkedType, value);
     return VoidValue.VOID;
   }
 
+  /**
+   * Adds a variable to context, checking its type first if the TypeChecker could not.
+   * @param checkedType The declared type of the variable, or null if value is already known to have it.
+   * @throws IllegalStateException if value does not have checkedType.
+   */
+  public static void declare(SymbolTable context, String id, Value.Type checkedType, Value value) {
+    if (checkedType != null && value.type != checkedType) {
+      throw new IllegalStateException("Interpreter::variableDeclaration - Tried to initialize " + checkedType + " variable " + id + " with a " + value.type);
+    }
+    context.add(id, value.toVariable());
+  }
+
   /**
    * Precondition: node.type == Parser.Node.Type.VariableAccess
    * @param context The interpreter's current Symbol Table.
@@ -82,7 +233,7 @@ public class Interpreter {
    */
   public static Value variableAccess(SymbolTable context, Parser.Node node) {
     Parser.VariableAccessNode variableAccessNode = (Parser.VariableAccessNode) node;
-    return context.get(variableAccessNode.id);
+    return context.get(variableAccessNode.id, variableAccessNode.depth);
   }
 
   /**
@@ -93,12 +244,18 @@ public class Interpreter {
    *         passed in corresponds to.
    */
   public static Value functionCall(SymbolTable context, Parser.Node node) {
+    if (safepointPending) {
+      runSafepointTasks();
+    }
     Parser.FunctionCallNode functionCallNode = (Parser.FunctionCallNode) node;
-    List<Value> args = new ArrayList<>();
-    for (Parser.Node it : ((Parser.FunctionCallNode) node).args) {
+    List<Value> args = new ArrayList<>(functionCallNode.args.size());
+    for (Parser.Node it : functionCallNode.args) {
       args.add(interpret(context, it));
     }
-    return context.get(FunctionValue.mangleNameCallerSide(functionCallNode.toCall, args)).call(context, args);
+    if (functionCallNode.bound != null) {
+      return context.get(functionCallNode.bound, functionCallNode.depth).callChecked(context, args);
+    }
+    return context.get(FunctionValue.mangleNameCallerSide(functionCallNode.toCall, args), functionCallNode.depth).call(context, args);
   }
 
   /**
@@ -110,6 +267,15 @@ public class Interpreter {
    */
   public static Value maths(SymbolTable context, Parser.Node node) {
     Parser.MathNode mathNode = (Parser.MathNode) node;
+    if (mathNode.operation == Lexer.Token.Type.Assign && mathNode.left.type == Parser.Node.Type.Index) {
+      Parser.IndexNode indexNode = (Parser.IndexNode) mathNode.left;
+      Value target = interpret(context, indexNode.target);
+      Value index = interpret(context, indexNode.index);
+      return target.assignIndex(index, interpret(context, mathNode.right));
+    }
+    if (mathNode.operation == Lexer.Token.Type.OrOr || mathNode.operation == Lexer.Token.Type.AndAnd) {
+      return logical(context, mathNode);
+    }
     Value left = interpret(context, mathNode.left);
     Value right = interpret(context, mathNode.right);
     if (mathNode.operation == Lexer.Token.Type.Add) {
@@ -136,16 +302,33 @@ public class Interpreter {
       return left.greaterThan(right);
     } else if (mathNode.operation == Lexer.Token.Type.GreaterThanEquals) {
       return left.greaterThanEqualTo(right);
-    } else if (mathNode.operation == Lexer.Token.Type.OrOr) {
-      return left.orOr(right);
-    } else if (mathNode.operation == Lexer.Token.Type.AndAnd) {
-      return left.andAnd(right);
     } else if (mathNode.operation == Lexer.Token.Type.Assign) {
       return left.assign(right);
     }
     throw new IllegalStateException("Interpreter::maths - Invalid operation " + mathNode.operation);
   }
 
+  /**
+   * Evaluates the right side of a && or || only if the left side does not already decide the result.
+   * Precondition: node.operation == Lexer.Token.Type.OrOr or node.operation == Lexer.Token.Type.AndAnd
+   * @param context The interpreter's current Symbol Table.
+   * @param node The node to execute.
+   * @return 1 if the operation is true, 0 otherwise.
+   */
+  private static Value logical(SymbolTable context, Parser.MathNode node) {
+    boolean left = interpret(context, node.left).truthy();
+    if (left == (node.operation == Lexer.Token.Type.OrOr)) {
+      if (profile && node.rightSkipped++ == 0) {
+        PROFILED.add(node);
+      }
+      return new IntegerValue(left ? 1 : 0);
+    }
+    if (profile && node.rightEvaluated++ == 0) {
+      PROFILED.add(node);
+    }
+    return new IntegerValue(interpret(context, node.right).truthy() ? 1 : 0);
+  }
+
   /**
    * Precondition: node.type == Parser.Node.Type.Negation
    * @param context The interpreter's current Symbol Table.
@@ -155,13 +338,13 @@ public class Interpreter {
    */
   public static Value negation(SymbolTable context, Parser.Node node) {
     Parser.NegationNode negationNode = (Parser.NegationNode) node;
-    Value acting = integer(context, negationNode.acting);
+    Value acting = interpret(context, negationNode.acting);
     if (negationNode.operation == Lexer.Token.Type.Not) {
       return acting.not();
     } else if (negationNode.operation == Lexer.Token.Type.Sub) {
       return acting.negate();
     } else if (negationNode.operation == Lexer.Token.Type.Add) {
-      return acting;
+      return acting.plus();
     } else {
       throw new IllegalStateException("Interpreter::negation - Invalid operation " + negationNode.operation);
     }
@@ -171,17 +354,48 @@ public class Interpreter {
    * Precondition: node.type == Parser.Node.Type.Block
    * @param context The interpreter's current Symbol Table.
    * @param node The node to execute.
-   * @return The value corresponding to the output of the last statement of the Parser.BlockNode passed in.
+   * @return The value corresponding to the output of the last statement of the Parser.BlockNode passed in, or Void
+   *         if it is empty.
    */
   public static Value block(SymbolTable context, Parser.Node node) {
     Parser.BlockNode blockNode = (Parser.BlockNode) node;
-    SymbolTable symb = new SymbolTable(context);
+    if (blockNode.exprs.isEmpty()) {
+      return VoidValue.VOID;
+    }
+    if (!blockNode.scoped) {
+      return exprs(context, blockNode.exprs);
+    }
+    SymbolTable symb = SymbolTable.acquire(context);
+    try {
+      return exprs(symb, blockNode.exprs);
+    } finally {
+      if (!blockNode.retained) {
+        SymbolTable.release(symb);
+      }
+    }
+  }
+
+  /**
+   * Runs the expressions of a block straight in context, for a Symbol Table that already belongs to the block, such
+   * as that of a function call.
+   * Precondition: node.type == Parser.Node.Type.Block
+   * @return The value of the last expression of the block, or Void if it is empty.
+   */
+  public static Value inline(SymbolTable context, Parser.Node node) {
+    List<Parser.Node> exprs = ((Parser.BlockNode) node).exprs;
+    return exprs.isEmpty() ? VoidValue.VOID : exprs(context, exprs);
+  }
 
-    for (int i = 0; i < blockNode.exprs.size() - 1; i++) {
-      interpret(symb, blockNode.exprs.get(i));
+  /**
+   * Precondition: !exprs.isEmpty()
+   * @return The value of the last of exprs, after executing all of them in order.
+   */
+  private static Value exprs(SymbolTable context, List<Parser.Node> exprs) {
+    for (int i = 0; i < exprs.size() - 1; i++) {
+      interpret(context, exprs.get(i));
     }
 
-    return interpret(symb, blockNode.exprs.get(blockNode.exprs.size() - 1));
+    return interpret(context, exprs.get(exprs.size() - 1));
   }
 
   /**
@@ -192,18 +406,30 @@ public class Interpreter {
    *         Parser.IfNode passed in.
    */
   public static Value ifStatement(SymbolTable context, Parser.Node node) {
-    Parser.IfNode ifNode = (Parser.IfNode) node;
-    for (Pair<Parser.Node, Parser.Node> it : ifNode.conditions) {
+    Parser.Node branch = branch(context, (Parser.IfNode) node);
+    return branch == null ? VoidValue.VOID : interpret(context, branch);
+  }
+
+  /**
+   * Evaluates the conditions of ifNode in order, up to the first one that holds.
+   * @param context The interpreter's current Symbol Table.
+   * @return The body of the branch to take, or null if no branch is taken.
+   */
+  private static Parser.Node branch(SymbolTable context, Parser.IfNode ifNode) {
+    for (int i = 0; i < ifNode.conditions.size(); i++) {
+      Pair<Parser.Node, Parser.Node> it = ifNode.conditions.get(i);
       if (interpret(context, it.a).truthy()) {
-        return interpret(context, it.b);
+        if (profile && ifNode.taken[i]++ == 0) {
+          PROFILED.add(ifNode);
+        }
+        return it.b;
       }
     }
 
-    if (ifNode.otherwise != null) {
-      return interpret(context, ifNode.otherwise);
+    if (profile && ifNode.taken[ifNode.conditions.size()]++ == 0) {
+      PROFILED.add(ifNode);
     }
-
-    return VoidValue.VOID;
+    return ifNode.otherwise;
   }
 
   /**
@@ -215,13 +441,234 @@ public class Interpreter {
    */
   public static Value forLoop(SymbolTable context, Parser.Node node) {
     Parser.ForNode forNode = (Parser.ForNode) node;
-    SymbolTable symb = new SymbolTable(context);
-    while (interpret(symb, forNode.condition).truthy()) {
-      interpret(symb, forNode.body);
+    while (interpret(context, forNode.condition).truthy()) {
+      if (safepointPending) {
+        runSafepointTasks();
+      }
+      interpret(context, forNode.body);
+    }
+    return VoidValue.VOID;
+  }
+
+  /**
+   * Precondition: node.type == Parser.Node.Type.ForIn
+   * @param context The interpreter's current Symbol Table.
+   * @param node The node to execute.
+   * @return Void; This function has the side effect of running the body of the Parser.ForInNode passed in once for
+   *         each value of its generator.
+   */
+  public static Value forInLoop(SymbolTable context, Parser.Node node) {
+    Parser.ForInNode forInNode = (Parser.ForInNode) node;
+    GeneratorValue generator = GeneratorValue.of(interpret(context, forInNode.iterable));
+    for (Value value = generator.next(); value != null; value = generator.next()) {
+      if (safepointPending) {
+        runSafepointTasks();
+      }
+      SymbolTable symb = SymbolTable.acquire(context);
+      try {
+        symb.add(forInNode.id, value.toVariable());
+        inline(symb, forInNode.body);
+      } finally {
+        if (!forInNode.retained) {
+          SymbolTable.release(symb);
+        }
+      }
+    }
+    return VoidValue.VOID;
+  }
+
+  /**
+   * Precondition: node.type == Parser.Node.Type.RangeFor
+   * The counter is a Java int, and is only put in a value for the body when the body reads the loop variable, so
+   * assigning to the loop variable does not change which iterations run. All of the iterations share one Symbol
+   * Table, emptied before each of them, unless a function declared in the body can outlive an iteration.
+   * @param context The interpreter's current Symbol Table.
+   * @param node The node to execute.
+   * @return Void; This function has the side effect of running the body of the Parser.RangeForNode passed in once for
+   *         each number from its start up to, but not including, its end.
+   */
+  public static Value rangeForLoop(SymbolTable context, Parser.Node node) {
+    Parser.RangeForNode rangeForNode = (Parser.RangeForNode) node;
+    int from = interpret(context, rangeForNode.from).toIntValue().value;
+    int to = interpret(context, rangeForNode.to).toIntValue().value;
+    if (rangeForNode.retained) {
+      for (int i = from; i < to; i++) {
+        if (safepointPending) {
+          runSafepointTasks();
+        }
+        SymbolTable symb = SymbolTable.acquire(context);
+        if (rangeForNode.counterRead) {
+          symb.add(rangeForNode.id, new IntegerValue(i));
+        }
+        inline(symb, rangeForNode.body);
+      }
+      return VoidValue.VOID;
+    }
+
+    SymbolTable symb = SymbolTable.acquire(context);
+    try {
+      for (int i = from; i < to; i++) {
+        if (safepointPending) {
+          runSafepointTasks();
+        }
+        // a variable declared by the previous iteration must not be seen by this one
+        symb.values.clear();
+        if (rangeForNode.counterRead) {
+          symb.add(rangeForNode.id, new IntegerValue(i));
+        }
+        inline(symb, rangeForNode.body);
+      }
+    } finally {
+      SymbolTable.release(symb);
     }
     return VoidValue.VOID;
   }
 
+  /**
+   * Precondition: node.type == Parser.Node.Type.Yield
+   * A yield is only run here when it is somewhere a generator cannot be suspended at; GeneratorValue runs the rest.
+   * @throws IllegalStateException always.
+   */
+  private static Value yieldStatement(SymbolTable context, Parser.Node node) {
+    throw new IllegalStateException("Interpreter::yield - Tried to yield somewhere other than a statement of a generator function at " + ((Parser.YieldNode) node).pos);
+  }
+
+  /**
+   * Precondition: node.type == Parser.Node.Type.ParallelFor
+   * @param context The interpreter's current Symbol Table.
+   * @param node The node to execute.
+   * @return The reduction of the values of every iteration's body, or Void if the Parser.ParallelForNode passed in
+   *         has no reduction.
+   */
+  public static Value parallelForLoop(SymbolTable context, Parser.Node node) {
+    Parser.ParallelForNode parallelForNode = (Parser.ParallelForNode) node;
+    int from = interpret(context, parallelForNode.from).toIntValue().value;
+    int to = interpret(context, parallelForNode.to).toIntValue().value;
+    return parallelFor(context, parallelForNode.id, from, to, parallelForNode.reduction, parallelForNode.retained,
+        (symb) -> inline(symb, parallelForNode.body));
+  }
+
+  /**
+   * Runs the iterations [from, to) of a parallel for loop on the common ForkJoinPool.
+   * @param context   The Symbol Table the loop runs in.
+   * @param id        The name of the loop variable.
+   * @param reduction How the values of the iterations are combined, or null if they are discarded.
+   * @param retained  Whether a function declared in the body can outlive an iteration.
+   * @param body      Runs the body of the loop in the Symbol Table of one iteration.
+   * @return The reduction of the values of every iteration's body, or Void if there is no reduction.
+   * @throws IllegalStateException if the reduction is min or max and the range is empty, so there is nothing to take
+   *         the least or greatest of.
+   */
+  public static Value parallelFor(SymbolTable context, String id, int from, int to, Parser.ParallelForNode.Reduction reduction, boolean retained, Function<SymbolTable, Value> body) {
+    if (to <= from && (reduction == Parser.ParallelForNode.Reduction.Min || reduction == Parser.ParallelForNode.Reduction.Max)) {
+      throw new IllegalStateException("Interpreter::parallelFor - Tried to take the " + reduction.name().toLowerCase() + " of the empty range " + from + ".." + to);
+    }
+    ForkJoinPool pool = ForkJoinPool.commonPool();
+    int grain = Math.max(1, (to - from) / (pool.getParallelism() * 8));
+    int result = pool.invoke(new ParallelRange(context, id, reduction, retained, body, from, to, grain));
+    return reduction == null ? VoidValue.VOID : new IntegerValue(result);
+  }
+
+  /**
+   * Runs the iterations [from, to) of a parallel for loop, splitting the range in half until it is at most grain
+   * iterations long. Each iteration gets its own Symbol Table holding the loop variable, so the enclosing Symbol
+   * Tables are only ever read from while the loop runs.
+   */
+  private static class ParallelRange extends RecursiveTask<Integer> {
+    private static final long serialVersionUID = 1L;
+
+    private final SymbolTable context;
+    private final String id;
+    private final Parser.ParallelForNode.Reduction reduction;
+    private final boolean retained;
+    private final Function<SymbolTable, Value> body;
+    private final int from;
+    private final int to;
+    private final int grain;
+
+    private ParallelRange(SymbolTable context, String id, Parser.ParallelForNode.Reduction reduction, boolean retained, Function<SymbolTable, Value> body, int from, int to, int grain) {
+      this.context = context;
+      this.id = id;
+      this.reduction = reduction;
+      this.retained = retained;
+      this.body = body;
+      this.from = from;
+      this.to = to;
+      this.grain = grain;
+    }
+
+    /**
+     * @return The part [from, to) of the loop that parent runs part of.
+     */
+    private ParallelRange(ParallelRange parent, int from, int to) {
+      this(parent.context, parent.id, parent.reduction, parent.retained, parent.body, from, to, parent.grain);
+    }
+
+    private static int identity(Parser.ParallelForNode.Reduction reduction) {
+      if (reduction == Parser.ParallelForNode.Reduction.Min) {
+        return Integer.MAX_VALUE;
+      } else if (reduction == Parser.ParallelForNode.Reduction.Max) {
+        return Integer.MIN_VALUE;
+      }
+      return 0;
+    }
+
+    private static int combine(Parser.ParallelForNode.Reduction reduction, int a, int b) {
+      if (reduction == Parser.ParallelForNode.Reduction.Sum) {
+        return a + b;
+      } else if (reduction == Parser.ParallelForNode.Reduction.Min) {
+        return Math.min(a, b);
+      } else if (reduction == Parser.ParallelForNode.Reduction.Max) {
+        return Math.max(a, b);
+      }
+      return 0;
+    }
+
+    @Override
+    protected Integer compute() {
+      if (to - from > grain) {
+        int mid = from + (to - from) / 2;
+        ParallelRange left = new ParallelRange(this, from, mid);
+        left.fork();
+        int right = new ParallelRange(this, mid, to).compute();
+        return combine(reduction, left.join(), right);
+      }
+
+      int result = identity(reduction);
+      for (int i = from; i < to; i++) {
+        SymbolTable symb = SymbolTable.acquire(context);
+        Value value;
+        try {
+          symb.add(id, new IntegerValue(i));
+          value = body.apply(symb);
+        } finally {
+          if (!retained) {
+            SymbolTable.release(symb);
+          }
+        }
+        if (reduction != null) {
+          if (value.type != Value.Type.Integer) {
+            throw new IllegalStateException("Interpreter::parallelForLoop - Tried to " + reduction + " a " + value.type);
+          }
+          result = combine(reduction, result, ((IntegerValue) value).value);
+        }
+      }
+      return result;
+    }
+  }
+
+  /**
+   * Precondition: node.type == Parser.Node.Type.Index
+   * @param context The interpreter's current Symbol Table.
+   * @param node The node to execute.
+   * @return The element of the indexed value that the Parser.IndexNode passed in refers to.
+   */
+  public static Value index(SymbolTable context, Parser.Node node) {
+    Parser.IndexNode indexNode = (Parser.IndexNode) node;
+    Value target = interpret(context, indexNode.target);
+    return target.index(interpret(context, indexNode.index));
+  }
+
   /**
    * Precondition: node.type == Parser.Node.Type.Integer
    * @param context The interpreter's current Symbol Table.
@@ -232,37 +679,215 @@ public class Interpreter {
     return CALLS.get(node.type).apply(context, node);
   }
 
+  /**
+   * A buffered sink for the program's output. Lines are encoded directly into a byte buffer, which is written to the
+   * channel when it fills up, when flush is called, or on the first println after flushInterval nanoseconds have
+   * passed since the last write. All methods are synchronized, so lines from concurrent threads are never interleaved.
+   */
+  public static class Output {
+    private static final CharBuffer LINE_SEPARATOR = CharBuffer.wrap(System.lineSeparator());
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer;
+    private final CharsetEncoder encoder;
+    private final long flushInterval;
+    private long lastFlush;
+
+    public Output(WritableByteChannel channel, int capacity, long flushInterval) {
+      this.channel = channel;
+      this.buffer = ByteBuffer.allocate(capacity);
+      this.encoder = Charset.defaultCharset().newEncoder()
+          .onMalformedInput(CodingErrorAction.REPLACE)
+          .onUnmappableCharacter(CodingErrorAction.REPLACE);
+      this.flushInterval = flushInterval;
+      this.lastFlush = System.nanoTime();
+    }
+
+    public synchronized void println(String line) {
+      encode(CharBuffer.wrap(line));
+      encode(LINE_SEPARATOR.duplicate());
+      if (System.nanoTime() - lastFlush >= flushInterval) {
+        flush();
+      }
+    }
+
+    public synchronized void print(String text) {
+      encode(CharBuffer.wrap(text));
+    }
+
+    /**
+     * Writes everything buffered so far to the channel.
+     */
+    public synchronized void flush() {
+      drain();
+      lastFlush = System.nanoTime();
+    }
+
+    private void encode(CharBuffer chars) {
+      encoder.reset();
+      CoderResult result = encoder.encode(chars, buffer, true);
+      while (result.isOverflow()) {
+        drain();
+        result = encoder.encode(chars, buffer, true);
+      }
+      result = encoder.flush(buffer);
+      while (result.isOverflow()) {
+        drain();
+        result = encoder.flush(buffer);
+      }
+      if (result.isError()) {
+        try {
+          result.throwException();
+        } catch (CharacterCodingException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    }
+
+    private void drain() {
+      buffer.flip();
+      try {
+        while (buffer.hasRemaining()) {
+          channel.write(buffer);
+        }
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+      buffer.clear();
+    }
+  }
+
   /**
    * Represents the variables accessible by the program at any given time.
    */
   public static class SymbolTable {
-    public final HashMap<String, Value> values = new HashMap<>();
-    public final SymbolTable parent;
+    /**
+     * Symbol Tables that have been released, kept per thread so that calls and blocks can reuse them instead of
+     * allocating a new table and HashMap every time. A deep recursion leaves at most POOL_LIMIT of them behind.
+     */
+    private static final ThreadLocal<ArrayDeque<SymbolTable>> POOL = ThreadLocal.withInitial(ArrayDeque::new);
+    private static final int POOL_LIMIT = 64;
+
+    /**
+     * The variables declared in this Symbol Table. The outermost one's is a ConcurrentHashMap, since a spawned task
+     * can read it while the thread that spawned it keeps declaring variables in it; see snapshot.
+     */
+    public final Map<String, Value> values;
+    public SymbolTable parent;
+    /**
+     * The outermost Symbol Table, which this one is nested in, or this one if it has no parent.
+     */
+    public SymbolTable root;
 
     public SymbolTable() {
-      parent = null;
+      this(null);
     }
 
     public SymbolTable(SymbolTable parent) {
+      this.values = parent == null ? new ConcurrentHashMap<>() : new HashMap<>();
       this.parent = parent;
+      this.root = parent == null ? this : parent.root;
+      if (Metrics.ENABLED) {
+        Metrics.symbolTableCreated();
+      }
+    }
+
+    /**
+     * @param parent The Symbol Table that the returned one is nested in.
+     * @return An empty Symbol Table from this thread's pool, or a new one if the pool is empty or parent is null.
+     */
+    public static SymbolTable acquire(SymbolTable parent) {
+      if (parent == null) {
+        return new SymbolTable(null);
+      }
+      SymbolTable table = POOL.get().pollFirst();
+      if (table == null) {
+        return new SymbolTable(parent);
+      }
+      if (Metrics.ENABLED) {
+        Metrics.symbolTableReused();
+      }
+      table.parent = parent;
+      table.root = parent.root;
+      return table;
+    }
+
+    /**
+     * Empties a Symbol Table and returns it to this thread's pool.
+     * Precondition: table came from acquire, and nothing will use it, or nest a Symbol Table in it, from now on.
+     * @param table The Symbol Table to release.
+     */
+    public static void release(SymbolTable table) {
+      ArrayDeque<SymbolTable> pool = POOL.get();
+      // an outermost Symbol Table is never pooled, so that only those keep a ConcurrentHashMap
+      if (pool.size() < POOL_LIMIT && table.parent != null) {
+        table.values.clear();
+        table.parent = null;
+        table.root = null;
+        pool.addFirst(table);
+      }
     }
 
     /**
      * Precondition: The variable whose identifier is id is in this Symbol Table or one of its parents.
+     * A value found in one of the parents is cached in this Symbol Table only, so a lookup never writes to an
+     * enclosing Symbol Table; this is what lets the iterations of a parallel for loop share their enclosing scopes.
      * @param id The identifier of the variable that will be returned by this call.
      * @return The value that is held in the variable named id
-     * @throws IllegalStateException if the
+     * @throws IllegalStateException if the variable is in neither this Symbol Table nor any of its parents.
      */
     public Value get(String id) {
-      if (values.containsKey(id)) {
-        return values.get(id);
+      Value value = values.get(id);
+      if (value != null) {
+        return value;
+      }
+      for (SymbolTable table = parent; table != null; table = table.parent) {
+        value = table.values.get(id);
+        if (value != null) {
+          values.put(id, value);
+          return value;
+        }
+      }
+      throw new IllegalStateException("SymbolTable::get - Was not able to find a value for id \"" + id + "\"");
+    }
+
+    /**
+     * Looks id up in the Symbol Table the Resolver found it to be declared in, without hashing it in every Symbol
+     * Table on the way there. Falls back to get(id) if it is not there (yet), which is then also what a lookup that
+     * walks every Symbol Table would find.
+     * @param id The identifier of the variable that will be returned by this call.
+     * @param depth How many Symbol Tables up from this one id is declared, Resolver.GLOBAL or Resolver.UNRESOLVED.
+     * @return The value that is held in the variable named id
+     * @throws IllegalStateException if the variable is in neither this Symbol Table nor any of its parents.
+     */
+    public Value get(String id, int depth) {
+      SymbolTable table = depth == Resolver.GLOBAL ? root : this;
+      for (int i = 0; i < depth && table != null; i++) {
+        table = table.parent;
       }
+      if (depth != Resolver.UNRESOLVED && table != null) {
+        Value value = table.values.get(id);
+        if (value != null) {
+          return value;
+        }
+      }
+      return get(id);
+    }
+
+    /**
+     * @return A copy of this Symbol Table and of each of its parents but the outermost, which is shared; its values
+     *         are a ConcurrentHashMap, as are those of every outermost Symbol Table. Other threads can read the copy
+     *         while this thread keeps declaring variables; the values themselves are shared, so assignments are still
+     *         visible across threads. Each copy is as far from the outermost Symbol Table as
+     *         the original, so the Resolver's depths hold for it too.
+     */
+    public SymbolTable snapshot() {
       if (parent == null) {
-        throw new IllegalStateException("SymbolTable::get - Was not able to find a value for id \"" + id + "\"");
+        return this;
       }
-      Value value = parent.get(id);
-      values.put(id, value);
-      return value;
+      SymbolTable copy = new SymbolTable(parent.snapshot());
+      copy.values.putAll(values);
+      return copy;
     }
 
     /**
@@ -277,11 +902,12 @@ public class Interpreter {
     /**
      * A convenience function to construct and add a BuiltinFunctionValue given the arguments.
      * @param id The un-mangled name of the function. Remember, function names are mangled in order to allow overloading.
-     * @param args The arguments this function takes.
+     * @param args The types of the arguments this function takes, in order.
+     * @param returns The type of the values this function returns, or null if it depends on the arguments' contents.
      * @param body The Java function that will be executed when this builtin function is executed in the language.
      */
-    public void addBuiltinFunc(String id, List<Pair<String, Value.Type>> args, Function<SymbolTable, Value> body) {
-      BuiltinFunctionValue func = new BuiltinFunctionValue(id, args, body);
+    public void addBuiltinFunc(String id, List<Value.Type> args, Value.Type returns, Builtin body) {
+      BuiltinFunctionValue func = new BuiltinFunctionValue(id, args, returns, body);
       add(func.id, func);
     }
   }
@@ -291,6 +917,9 @@ public class Interpreter {
 
     protected Value(Type type) {
       this.type = type;
+      if (Metrics.ENABLED) {
+        Metrics.valueAllocated(type);
+      }
     }
 
     public Value add(Value other) {
@@ -341,20 +970,36 @@ public class Interpreter {
       throw new IllegalStateException(this.getClass().getSimpleName() + "::assign - Tried to do " + this.type + " <- " + other.type);
     }
 
+    public Value index(Value index) {
+      throw new IllegalStateException(this.getClass().getSimpleName() + "::index - Tried to do " + this.type + "[" + index.type + "]");
+    }
+
+    public Value assignIndex(Value index, Value other) {
+      throw new IllegalStateException(this.getClass().getSimpleName() + "::assignIndex - Tried to do " + this.type + "[" + index.type + "] <- " + other.type);
+    }
+
     public boolean truthy() {
       throw new IllegalStateException(this.getClass().getSimpleName() + "::truthy - Tried to determine the truthiness of " + this.type);
     }
 
-    public Value call(SymbolTable context, List<Value> args) {
-      throw new IllegalStateException(this.getClass().getSimpleName() + "::call - Tried to call on " + this.type);
+    /**
+     * @return This value, or a copy of it if it is a constant, which every evaluation of a literal shares and which
+     *         therefore must not be what a variable, argument or element holds, since those can be assigned to.
+     */
+    public Value toVariable() {
+      return this;
     }
 
-    public Value orOr(Value other) {
-      return new IntegerValue(this.truthy() || other.truthy() ? 1 : 0);
+    public Value call(SymbolTable context, List<Value> args) {
+      throw new IllegalStateException(this.getClass().getSimpleName() + "::call - Tried to call on " + this.type);
     }
 
-    public Value andAnd(Value other) {
-      return new IntegerValue(this.truthy() && other.truthy() ? 1 : 0);
+    /**
+     * Calls this function with arguments that the TypeChecker has already matched to the ones it takes, so they are
+     * not checked again.
+     */
+    public Value callChecked(SymbolTable context, List<Value> args) {
+      return call(context, args);
     }
 
     public Value not() {
@@ -365,6 +1010,13 @@ public class Interpreter {
       throw new IllegalStateException(this.getClass().getSimpleName() + "::negate - Tried to negate a " + this.type);
     }
 
+    /**
+     * @return The value of unary + applied to this value, which is only defined for ints.
+     */
+    public Value plus() {
+      throw new IllegalStateException(this.getClass().getSimpleName() + "::plus - Tried to apply unary + to a " + this.type);
+    }
+
     public IntegerValue toIntValue() {
       throw new IllegalStateException(this.getClass().getSimpleName() + "::toIntValue - Tried to convert a " + this.type + " to int");
     }
@@ -374,7 +1026,7 @@ public class Interpreter {
     }
 
     public enum Type {
-      Integer("<int>"), String("<string>"), Function("<fun>"), Void("<void>");
+      Integer("<int>"), String("<string>"), Function("<fun>"), Void("<void>"), Array("<array>"), List("<list>"), Map("<map>"), Task("<task>"), Channel("<channel>"), File("<file>"), Builder("<builder>"), Generator("<generator>");
 
       private final String name;
 
@@ -396,8 +1048,24 @@ public class Interpreter {
           return String;
         } else if ("fun".equals(s)) {
           return Function;
+        } else if ("array".equals(s)) {
+          return Array;
+        } else if ("list".equals(s)) {
+          return List;
+        } else if ("map".equals(s)) {
+          return Map;
+        } else if ("task".equals(s)) {
+          return Task;
+        } else if ("channel".equals(s)) {
+          return Channel;
+        } else if ("file".equals(s)) {
+          return File;
+        } else if ("builder".equals(s)) {
+          return Builder;
+        } else if ("generator".equals(s)) {
+          return Generator;
         }
-        throw new IllegalArgumentException("Value::Type::fromString - Expected \"int\", \"void\", \"string\", or \"fun\", got " + s);
+        throw new IllegalArgumentException("Value::Type::fromString - Expected \"int\", \"void\", \"string\", \"fun\", \"array\", \"list\", \"map\", \"task\", \"channel\", \"file\", \"builder\", or \"generator\", got " + s);
       }
     }
   }
@@ -530,6 +1198,11 @@ public class Interpreter {
       return new IntegerValue(-this.value);
     }
 
+    @Override
+    public Value plus() {
+      return this;
+    }
+
     @Override
     public String toString() {
       return Integer.toString(value);
@@ -546,44 +1219,199 @@ public class Interpreter {
     }
   }
 
+  /**
+   * A string is a view of the characters source[offset, offset + length). Slices share the source of the string they
+   * were taken from, so taking a substring never copies characters; they are only copied if the string is needed as a
+   * java.lang.String, see value.
+   */
   public static class StringValue extends Value {
-    public String value;
+    public String source;
+    public int offset;
+    public int length;
+    /**
+     * Whether this string is the constant of a literal, which must not change; see constant.
+     */
+    public final boolean constant;
 
     public StringValue(String value) {
-      super(Type.String);
-      this.value = value;
+      this(value, 0, value.length());
     }
 
-    @Override
-    public Value add(Value other) {
-      if (other.type == Type.String) {
-        return new StringValue(value + ((StringValue) other).value);
-      } else {
-        return new StringValue(value + ((IntegerValue) other).value);
-      }
+    public StringValue(String source, int offset, int length) {
+      this(source, offset, length, false);
     }
 
-    @Override
-    public Value mul(Value other) {
-      if (other.type == Type.Integer) {
-        return new StringValue(String.valueOf(value).repeat(Math.max(0, ((IntegerValue) other).value)));
-      } else {
-        throw new IllegalStateException("StringValue::mul - Tried to do <string> * <string>");
-      }
+    private StringValue(String source, int offset, int length, boolean constant) {
+      super(Type.String);
+      this.source = source;
+      this.offset = offset;
+      this.length = length;
+      this.constant = constant;
     }
 
-    @Override
-    public Value equalsEquals(Value other) {
-      if (other.type == Type.String) {
-        return new IntegerValue(Objects.equals(this.value, ((StringValue) other).value) ? 1 : 0);
-      }
-      return super.equalsEquals(other);
+    /**
+     * @return The constant for a string literal holding value. It is built once, when the literal is parsed, and
+     *         shared by every evaluation of it, so it cannot be assigned to; toVariable copies it wherever it is
+     *         stored. Its source is interned, so equal literals, and every copy of them, share one source.
+     */
+    public static StringValue constant(String value) {
+      return new StringValue(value.intern(), 0, value.length(), true);
     }
 
     @Override
-    public Value lessThan(Value other) {
-      if (other.type == Type.String) {
-        return new IntegerValue(this.value.compareTo(((StringValue) other).value) < 0 ? 1 : 0);
+    public Value toVariable() {
+      return constant ? new StringValue(source, offset, length) : this;
+    }
+
+    /**
+     * Builds the string of an interpolation in one pass, in a builder big enough for all of it up front (unless it
+     * holds values that are neither strings nor ints, whose text is only known once it is made), so that it makes
+     * no string but the one it returns.
+     * @param values The values of the parts of the interpolation, in order.
+     * @return A new string of the text of every value, one after another.
+     */
+    public static StringValue interpolate(Value[] values) {
+      int capacity = 0;
+      for (Value value : values) {
+        if (value.type == Type.String) {
+          capacity += ((StringValue) value).length;
+        } else if (value.type == Type.Integer) {
+          capacity += digits(((IntegerValue) value).value);
+        } else {
+          capacity += 16;
+        }
+      }
+      StringBuilder builder = new StringBuilder(capacity);
+      for (Value value : values) {
+        BuilderValue.append(builder, value);
+      }
+      return new StringValue(builder.toString());
+    }
+
+    /**
+     * @return The number of characters in the decimal text of value, including its sign.
+     */
+    private static int digits(int value) {
+      int digits = value < 0 ? 2 : 1;
+      for (long rest = Math.abs((long) value); rest >= 10; rest /= 10) {
+        digits++;
+      }
+      return digits;
+    }
+
+    /**
+     * @return The characters of this string as a java.lang.String; this copies them only if this string is a slice.
+     */
+    public String value() {
+      if (offset == 0 && length == source.length()) {
+        return source;
+      }
+      return source.substring(offset, offset + length);
+    }
+
+    /**
+     * @param from The first index of the slice, inclusive.
+     * @param to   The last index of the slice, exclusive.
+     * @return A string that shares this string's source.
+     * @throws IllegalStateException if the range is not within [0, length]
+     */
+    public StringValue slice(int from, int to) {
+      if (from < 0 || to > length || from > to) {
+        throw new IllegalStateException("StringValue::slice - Range [" + from + ", " + to + ") out of bounds for length " + length);
+      }
+      return new StringValue(source, offset + from, to - from);
+    }
+
+    /**
+     * @return The first index at or after from at which needle occurs in this string, or -1 if there is none.
+     */
+    public int indexOf(StringValue needle, int from) {
+      for (int i = Math.max(from, 0); i <= length - needle.length; i++) {
+        if (source.regionMatches(offset + i, needle.source, needle.offset, needle.length)) {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    /**
+     * @return A map from 0, 1, 2, ... to the slices of this string between occurrences of separator.
+     * @throws IllegalStateException if separator is empty.
+     */
+    public MapValue split(StringValue separator) {
+      if (separator.length == 0) {
+        throw new IllegalStateException("StringValue::split - Tried to split on an empty string");
+      }
+      MapValue parts = new MapValue();
+      int from = 0;
+      for (int at = indexOf(separator, 0); at >= 0; at = indexOf(separator, from)) {
+        parts.put(new IntegerValue(parts.size), slice(from, at));
+        from = at + separator.length;
+      }
+      parts.put(new IntegerValue(parts.size), slice(from, length));
+      return parts;
+    }
+
+    private boolean contentEquals(StringValue other) {
+      if (length != other.length) {
+        return false;
+      }
+      // strings that came from equal literals share an interned source, so they are equal without comparing chars
+      if (source == other.source && offset == other.offset) {
+        return true;
+      }
+      return source.regionMatches(offset, other.source, other.offset, length);
+    }
+
+    private int compareTo(StringValue other) {
+      int shorter = Math.min(length, other.length);
+      for (int i = 0; i < shorter; i++) {
+        char a = source.charAt(offset + i);
+        char b = other.source.charAt(other.offset + i);
+        if (a != b) {
+          return a - b;
+        }
+      }
+      return length - other.length;
+    }
+
+    @Override
+    public Value add(Value other) {
+      if (other.type == Type.String) {
+        StringValue string = (StringValue) other;
+        return new StringValue(new StringBuilder(length + string.length)
+            .append(source, offset, offset + length)
+            .append(string.source, string.offset, string.offset + string.length)
+            .toString());
+      } else {
+        return new StringValue(new StringBuilder(length + 11)
+            .append(source, offset, offset + length)
+            .append(((IntegerValue) other).value)
+            .toString());
+      }
+    }
+
+    @Override
+    public Value mul(Value other) {
+      if (other.type == Type.Integer) {
+        return new StringValue(value().repeat(Math.max(0, ((IntegerValue) other).value)));
+      } else {
+        throw new IllegalStateException("StringValue::mul - Tried to do <string> * <string>");
+      }
+    }
+
+    @Override
+    public Value equalsEquals(Value other) {
+      if (other.type == Type.String) {
+        return new IntegerValue(contentEquals((StringValue) other) ? 1 : 0);
+      }
+      return super.equalsEquals(other);
+    }
+
+    @Override
+    public Value lessThan(Value other) {
+      if (other.type == Type.String) {
+        return new IntegerValue(compareTo((StringValue) other) < 0 ? 1 : 0);
       }
       return super.lessThan(other);
     }
@@ -591,7 +1419,7 @@ public class Interpreter {
     @Override
     public Value lessThanEqualTo(Value other) {
       if (other.type == Type.String) {
-        return new IntegerValue(this.value.compareTo(((StringValue) other).value) <= 0 ? 1 : 0);
+        return new IntegerValue(compareTo((StringValue) other) <= 0 ? 1 : 0);
       }
       return super.lessThanEqualTo(other);
     }
@@ -599,7 +1427,7 @@ public class Interpreter {
     @Override
     public Value greaterThan(Value other) {
       if (other.type == Type.String) {
-        return new IntegerValue(this.value.compareTo(((StringValue) other).value) > 0 ? 1 : 0);
+        return new IntegerValue(compareTo((StringValue) other) > 0 ? 1 : 0);
       }
       return super.greaterThan(other);
     }
@@ -607,15 +1435,21 @@ public class Interpreter {
     @Override
     public Value greaterThanEqualTo(Value other) {
       if (other.type == Type.String) {
-        return new IntegerValue(this.value.compareTo(((StringValue) other).value) >= 0 ? 1 : 0);
+        return new IntegerValue(compareTo((StringValue) other) >= 0 ? 1 : 0);
       }
       return super.greaterThanEqualTo(other);
     }
 
     @Override
     public Value assign(Value other) {
+      if (constant) {
+        throw new IllegalStateException("StringValue::assign - Tried to assign to the string literal \"" + value() + "\"");
+      }
       if (other.type == Type.String) {
-        this.value = ((StringValue) other).value;
+        StringValue string = (StringValue) other;
+        this.source = string.source;
+        this.offset = string.offset;
+        this.length = string.length;
         return other;
       }
       return super.assign(other);
@@ -623,12 +1457,12 @@ public class Interpreter {
 
     @Override
     public boolean truthy() {
-      return value.length() != 0;
+      return length != 0;
     }
 
     @Override
     public String toString() {
-      return value;
+      return value();
     }
 
     @Override
@@ -638,30 +1472,923 @@ public class Interpreter {
 
     @Override
     public IntegerValue toIntValue() {
-      return new IntegerValue(Integer.parseInt(value));
+      return new IntegerValue(Integer.parseInt(source, offset, offset + length, 10));
+    }
+  }
+
+  /**
+   * A growable buffer that strings can be appended to without making an intermediate string per append.
+   */
+  public static class BuilderValue extends Value {
+    public final StringBuilder builder;
+
+    public BuilderValue() {
+      super(Type.Builder);
+      this.builder = new StringBuilder();
+    }
+
+    public BuilderValue append(Value value) {
+      append(builder, value);
+      return this;
+    }
+
+    /**
+     * Appends the text of value to builder, as print would show it, without making a string of it first.
+     */
+    public static void append(StringBuilder builder, Value value) {
+      if (value.type == Type.String) {
+        StringValue string = (StringValue) value;
+        builder.append(string.source, string.offset, string.offset + string.length);
+      } else if (value.type == Type.Integer) {
+        builder.append(((IntegerValue) value).value);
+      } else {
+        builder.append(value);
+      }
+    }
+
+    @Override
+    public String toString() {
+      return builder.toString();
+    }
+
+    @Override
+    public StringValue toStringValue() {
+      return new StringValue(builder.toString());
+    }
+  }
+
+  /**
+   * A fixed-length array of ints. The elements are kept in a primitive int[] rather than as IntegerValues, so
+   * indexing only allocates when an element is read out into the language, and the bulk operations below never do.
+   */
+  public static class ArrayValue extends Value {
+    public int[] values;
+    public int size;
+
+    public ArrayValue(int size) {
+      this(Type.Array, new int[size], size);
+    }
+
+    public ArrayValue(int[] values) {
+      this(Type.Array, values, values.length);
+    }
+
+    protected ArrayValue(Type type, int[] values, int size) {
+      super(type);
+      this.values = values;
+      this.size = size;
+    }
+
+    /**
+     * @throws IllegalStateException if index is not in [0, size)
+     */
+    protected void checkIndex(String location, int index) {
+      if (index < 0 || index >= size) {
+        throw new IllegalStateException(this.getClass().getSimpleName() + "::" + location + " - Index " + index + " out of bounds for length " + size);
+      }
+    }
+
+    public int get(int index) {
+      checkIndex("get", index);
+      return values[index];
+    }
+
+    public void set(int index, int value) {
+      checkIndex("set", index);
+      values[index] = value;
+    }
+
+    public int sum() {
+      int sum = 0;
+      for (int i = 0; i < size; i++) {
+        sum += values[i];
+      }
+      return sum;
+    }
+
+    public void fill(int value) {
+      Arrays.fill(values, 0, size, value);
+    }
+
+    public void sort() {
+      Arrays.sort(values, 0, size);
+    }
+
+    /**
+     * @param from The first index to copy, inclusive.
+     * @param to   The last index to copy, exclusive.
+     * @return A new array holding the elements in [from, to).
+     * @throws IllegalStateException if the range is not within [0, size]
+     */
+    public ArrayValue copyRange(int from, int to) {
+      if (from < 0 || to > size || from > to) {
+        throw new IllegalStateException(this.getClass().getSimpleName() + "::copyRange - Range [" + from + ", " + to + ") out of bounds for length " + size);
+      }
+      return new ArrayValue(Arrays.copyOfRange(values, from, to));
+    }
+
+    @Override
+    public Value index(Value index) {
+      if (index.type == Type.Integer) {
+        return new IntegerValue(get(((IntegerValue) index).value));
+      }
+      return super.index(index);
+    }
+
+    @Override
+    public Value assignIndex(Value index, Value other) {
+      if (index.type == Type.Integer && other.type == Type.Integer) {
+        set(((IntegerValue) index).value, ((IntegerValue) other).value);
+        return other;
+      }
+      return super.assignIndex(index, other);
+    }
+
+    @Override
+    public Value assign(Value other) {
+      if (other.type == this.type) {
+        ArrayValue array = (ArrayValue) other;
+        this.values = Arrays.copyOf(array.values, Math.max(array.size, 1));
+        this.size = array.size;
+        return other;
+      }
+      return super.assign(other);
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder sb = new StringBuilder("[");
+      for (int i = 0; i < size; i++) {
+        if (i != 0) sb.append(", ");
+        sb.append(values[i]);
+      }
+      return sb.append(']').toString();
+    }
+  }
+
+  /**
+   * A growable array of ints, backed by the same primitive storage as ArrayValue.
+   */
+  public static class ListValue extends ArrayValue {
+    public ListValue() {
+      super(Type.List, new int[8], 0);
+    }
+
+    public void push(int value) {
+      if (size == values.length) {
+        values = Arrays.copyOf(values, values.length * 2);
+      }
+      values[size++] = value;
+    }
+
+    /**
+     * @throws IllegalStateException if the list is empty.
+     */
+    public int pop() {
+      if (size == 0) {
+        throw new IllegalStateException("ListValue::pop - Tried to pop from an empty list");
+      }
+      return values[--size];
+    }
+  }
+
+  /**
+   * An associative container from ints or strings to values, stored in open-addressed, linearly probed arrays.
+   * While every key is an int the keys are kept unboxed in an int[]; the first string key moves the table over to
+   * Object keys. A slot is empty exactly when its entry in values is null.
+   */
+  public static class MapValue extends Value {
+    private int[] intKeys;
+    private Object[] keys;
+    private Value[] values;
+    public int size;
+
+    public MapValue() {
+      super(Type.Map);
+      this.intKeys = new int[16];
+      this.values = new Value[16];
+      this.size = 0;
+    }
+
+    private static int hash(int key) {
+      int h = key * 0x9E3779B9;
+      return h ^ (h >>> 16);
+    }
+
+    private static int hash(Object key) {
+      if (key instanceof Integer) {
+        return hash(((Integer) key).intValue());
+      }
+      return hash(key.hashCode());
+    }
+
+    /**
+     * @return The slot that holds key if it is present, otherwise the one's complement of the empty slot it would be
+     *         inserted into.
+     */
+    private int find(Value key) {
+      int mask = values.length - 1;
+      if (keys == null) {
+        if (key.type != Type.Integer) {
+          keyOf(key);
+          return ~0;
+        }
+        int k = ((IntegerValue) key).value;
+        int slot = hash(k) & mask;
+        while (values[slot] != null) {
+          if (intKeys[slot] == k) return slot;
+          slot = (slot + 1) & mask;
+        }
+        return ~slot;
+      }
+      Object k = keyOf(key);
+      int slot = hash(k) & mask;
+      while (values[slot] != null) {
+        if (keys[slot].equals(k)) return slot;
+        slot = (slot + 1) & mask;
+      }
+      return ~slot;
+    }
+
+    /**
+     * @throws IllegalStateException if key is neither an int nor a string.
+     */
+    private static Object keyOf(Value key) {
+      if (key.type == Type.Integer) {
+        return ((IntegerValue) key).value;
+      } else if (key.type == Type.String) {
+        return ((StringValue) key).value();
+      }
+      throw new IllegalStateException("MapValue::keyOf - Tried to use a " + key.type + " as a key");
+    }
+
+    private int homeOf(int slot) {
+      return (keys == null ? hash(intKeys[slot]) : hash(keys[slot])) & (values.length - 1);
+    }
+
+    /**
+     * Switches the table over to Object keys. Integer keys hash the same as int keys, so every entry stays put.
+     */
+    private void boxKeys() {
+      keys = new Object[values.length];
+      for (int i = 0; i < values.length; i++) {
+        if (values[i] != null) {
+          keys[i] = intKeys[i];
+        }
+      }
+      intKeys = null;
+    }
+
+    private void grow() {
+      int[] oldIntKeys = intKeys;
+      Object[] oldKeys = keys;
+      Value[] oldValues = values;
+      int capacity = oldValues.length * 2;
+      int mask = capacity - 1;
+      values = new Value[capacity];
+      if (oldKeys == null) {
+        intKeys = new int[capacity];
+      } else {
+        keys = new Object[capacity];
+      }
+      for (int i = 0; i < oldValues.length; i++) {
+        if (oldValues[i] == null) continue;
+        int slot = (oldKeys == null ? hash(oldIntKeys[i]) : hash(oldKeys[i])) & mask;
+        while (values[slot] != null) {
+          slot = (slot + 1) & mask;
+        }
+        if (oldKeys == null) {
+          intKeys[slot] = oldIntKeys[i];
+        } else {
+          keys[slot] = oldKeys[i];
+        }
+        values[slot] = oldValues[i];
+      }
+    }
+
+    /**
+     * @return The value held under key, or null if there is none.
+     */
+    public Value get(Value key) {
+      int slot = find(key);
+      return slot < 0 ? null : values[slot];
+    }
+
+    public boolean contains(Value key) {
+      return find(key) >= 0;
+    }
+
+    public void put(Value key, Value value) {
+      value = value.toVariable();
+      if (keys == null && key.type != Type.Integer) {
+        keyOf(key);
+        boxKeys();
+      }
+      int slot = find(key);
+      if (slot >= 0) {
+        values[slot] = value;
+        return;
+      }
+      if ((size + 1) * 4 > values.length * 3) {
+        grow();
+        slot = find(key);
+      }
+      slot = ~slot;
+      if (keys == null) {
+        intKeys[slot] = ((IntegerValue) key).value;
+      } else {
+        keys[slot] = keyOf(key);
+      }
+      values[slot] = value;
+      size++;
+    }
+
+    /**
+     * Removes key by shifting the rest of its probe run back, so that lookups never have to skip over tombstones.
+     * @return Whether key was present.
+     */
+    public boolean remove(Value key) {
+      int slot = find(key);
+      if (slot < 0) {
+        return false;
+      }
+      int mask = values.length - 1;
+      int hole = slot;
+      for (int next = (hole + 1) & mask; values[next] != null; next = (next + 1) & mask) {
+        if (((next - homeOf(next)) & mask) >= ((next - hole) & mask)) {
+          if (keys == null) {
+            intKeys[hole] = intKeys[next];
+          } else {
+            keys[hole] = keys[next];
+          }
+          values[hole] = values[next];
+          hole = next;
+        }
+      }
+      if (keys != null) {
+        keys[hole] = null;
+      }
+      values[hole] = null;
+      size--;
+      return true;
+    }
+
+    @Override
+    public Value index(Value index) {
+      Value value = get(index);
+      if (value == null) {
+        throw new IllegalStateException("MapValue::index - No value for key " + index);
+      }
+      return value;
+    }
+
+    @Override
+    public Value assignIndex(Value index, Value other) {
+      put(index, other);
+      return other;
+    }
+
+    @Override
+    public Value assign(Value other) {
+      if (other.type == Type.Map) {
+        MapValue map = (MapValue) other;
+        this.intKeys = map.intKeys == null ? null : map.intKeys.clone();
+        this.keys = map.keys == null ? null : map.keys.clone();
+        this.values = map.values.clone();
+        this.size = map.size;
+        return other;
+      }
+      return super.assign(other);
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder sb = new StringBuilder("{");
+      boolean first = true;
+      for (int i = 0; i < values.length; i++) {
+        if (values[i] == null) continue;
+        if (!first) sb.append(", ");
+        first = false;
+        sb.append(keys == null ? intKeys[i] : keys[i]).append(": ").append(values[i]);
+      }
+      return sb.append('}').toString();
+    }
+  }
+
+  /**
+   * The result of a function that was spawned to run concurrently with the rest of the program.
+   */
+  public static class TaskValue extends Value {
+    /**
+     * Runs spawned functions on virtual threads when the JVM has them, and on a pool of daemon threads otherwise.
+     */
+    public static final ExecutorService EXECUTOR = makeExecutor();
+
+    private static ExecutorService makeExecutor() {
+      try {
+        return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+      } catch (ReflectiveOperationException e) {
+        return Executors.newCachedThreadPool((runnable) -> {
+          Thread thread = new Thread(runnable);
+          thread.setDaemon(true);
+          return thread;
+        });
+      }
+    }
+
+    public final Future<Value> future;
+    /**
+     * Whether join has been called, so that a failure of the spawned function is left to it to report.
+     */
+    private volatile boolean joined = false;
+
+    /**
+     * Starts running func with no arguments. A FunctionValue runs against a snapshot of the Symbol Table it was
+     * declared in, so that this thread can keep declaring variables there; see SymbolTable.snapshot. If func fails
+     * before anything has joined it, the failure is printed to stderr as it happens, so that a task that is never
+     * joined does not fail silently; a task still running when the program finishes is abandoned.
+     */
+    public TaskValue(Value func) {
+      super(Type.Task);
+      Value detached = func instanceof FunctionValue ? ((FunctionValue) func).detach() : func;
+      this.future = EXECUTOR.submit(() -> {
+        try {
+          return detached.call(new SymbolTable(), List.of());
+        } catch (RuntimeException | Error e) {
+          if (!joined) {
+            OUT.flush();
+            System.err.println("TaskValue - Spawned function failed, with nothing joining it yet:");
+            e.printStackTrace();
+          }
+          throw e;
+        }
+      });
+    }
+
+    /**
+     * Waits for the spawned function to return.
+     * @return The value the spawned function returned.
+     * @throws IllegalStateException if the spawned function threw, or the wait was interrupted.
+     */
+    public Value join() {
+      joined = true;
+      try {
+        return future.get();
+      } catch (ExecutionException e) {
+        throw new IllegalStateException("TaskValue::join - Spawned function failed: " + e.getCause().getMessage(), e.getCause());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("TaskValue::join - Interrupted", e);
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "<task>";
+    }
+  }
+
+  /**
+   * The values yielded by one call of a generator function, run up to each yield as the next value is asked for.
+   * <p>
+   * Rather than running the body on a thread of its own that waits between values, a generator keeps its place in the
+   * body as an explicit stack of frames: one for each block, if statement and loop that it is inside of, each holding
+   * how far it has got and the Symbol Table it runs in. next runs the frame on top of the stack a step at a time until
+   * a yield, then returns the value yielded, leaving the stack as it is, so a suspended generator holds nothing but
+   * those frames and their Symbol Tables. Statements that cannot yield are run to completion by Interpreter.interpret.
+   * A generator must not be used from more than one thread at a time.
+   */
+  public static class GeneratorValue extends Value {
+    private final ArrayDeque<Frame> frames = new ArrayDeque<>();
+
+    /**
+     * @param body    The body of the generator function.
+     * @param context The Symbol Table of the call, holding its arguments.
+     * @param release Whether context can be handed back to the pool once the body has finished.
+     */
+    public GeneratorValue(Parser.Node body, SymbolTable context, boolean release) {
+      super(Type.Generator);
+      frames.push(new Frame(body, context, release));
+    }
+
+    /**
+     * @return value, as a generator.
+     * @throws IllegalStateException if value is not a generator.
+     */
+    public static GeneratorValue of(Value value) {
+      if (!(value instanceof GeneratorValue)) {
+        throw new IllegalStateException("GeneratorValue::of - Tried to loop over a " + value.type);
+      }
+      return (GeneratorValue) value;
+    }
+
+    /**
+     * Runs the body from where it last yielded up to the next yield. If the body throws, the generator is finished.
+     * @return The value yielded, or null once the body has finished.
+     */
+    public Value next() {
+      try {
+        while (!frames.isEmpty()) {
+          Frame frame = frames.peek();
+          switch (frame.node.type) {
+            case Block -> {
+              List<Parser.Node> exprs = ((Parser.BlockNode) frame.node).exprs;
+              if (frame.step == exprs.size()) {
+                pop();
+                break;
+              }
+              Parser.Node expr = exprs.get(frame.step++);
+              switch (expr.type) {
+                case Yield -> {
+                  return interpret(frame.context, ((Parser.YieldNode) expr).value);
+                }
+                case Block -> enter(expr, frame.context);
+                case If, For, ForIn, RangeFor -> frames.push(new Frame(expr, frame.context, false));
+                default -> interpret(frame.context, expr);
+              }
+            }
+            case If -> {
+              frames.pop();
+              Parser.Node branch = branch(frame.context, (Parser.IfNode) frame.node);
+              if (branch != null) {
+                enter(branch, frame.context);
+              }
+            }
+            case For -> {
+              if (safepointPending) {
+                runSafepointTasks();
+              }
+              Parser.ForNode forNode = (Parser.ForNode) frame.node;
+              if (interpret(frame.context, forNode.condition).truthy()) {
+                enter(forNode.body, frame.context);
+              } else {
+                frames.pop();
+              }
+            }
+            case ForIn -> {
+              Parser.ForInNode forInNode = (Parser.ForInNode) frame.node;
+              if (frame.source == null) {
+                frame.source = of(interpret(frame.context, forInNode.iterable));
+              }
+              Value value = frame.source.next();
+              if (value == null) {
+                frames.pop();
+                break;
+              }
+              SymbolTable symb = SymbolTable.acquire(frame.context);
+              symb.add(forInNode.id, value.toVariable());
+              frames.push(new Frame(forInNode.body, symb, !forInNode.retained));
+            }
+            case RangeFor -> {
+              // each iteration gets a Symbol Table of its own, as one shared by them all would have to outlive a yield
+              Parser.RangeForNode rangeForNode = (Parser.RangeForNode) frame.node;
+              if (!frame.started) {
+                frame.counter = interpret(frame.context, rangeForNode.from).toIntValue().value;
+                frame.end = interpret(frame.context, rangeForNode.to).toIntValue().value;
+                frame.started = true;
+              }
+              if (frame.counter >= frame.end) {
+                frames.pop();
+                break;
+              }
+              if (safepointPending) {
+                runSafepointTasks();
+              }
+              SymbolTable symb = SymbolTable.acquire(frame.context);
+              if (rangeForNode.counterRead) {
+                symb.add(rangeForNode.id, new IntegerValue(frame.counter));
+              }
+              frame.counter++;
+              frames.push(new Frame(rangeForNode.body, symb, !rangeForNode.retained));
+            }
+            default -> throw new IllegalStateException("GeneratorValue::next - Cannot suspend a " + frame.node.type);
+          }
+        }
+        return null;
+      } catch (RuntimeException e) {
+        frames.clear();
+        throw e;
+      }
+    }
+
+    /**
+     * Pushes the frame of a block, with a Symbol Table of its own if it is scoped.
+     */
+    private void enter(Parser.Node node, SymbolTable context) {
+      Parser.BlockNode blockNode = (Parser.BlockNode) node;
+      if (blockNode.scoped) {
+        frames.push(new Frame(blockNode, SymbolTable.acquire(context), !blockNode.retained));
+      } else {
+        frames.push(new Frame(blockNode, context, false));
+      }
+    }
+
+    private void pop() {
+      Frame frame = frames.pop();
+      if (frame.release) {
+        SymbolTable.release(frame.context);
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "<generator>";
+    }
+
+    /**
+     * Where the generator is in one block, if statement or loop of the body.
+     */
+    private static class Frame {
+      public final Parser.Node node;
+      public final SymbolTable context;
+      /**
+       * Whether context belongs to this frame alone, and can be handed back to the pool when it is popped.
+       */
+      public final boolean release;
+      /**
+       * For a block, the index of the next expression to run.
+       */
+      public int step;
+      /**
+       * For a for in loop, the generator being looped over, once it has been evaluated.
+       */
+      public GeneratorValue source;
+      /**
+       * For a counted loop, whether its bounds have been evaluated, the number of the next iteration, and the number
+       * it stops at.
+       */
+      public boolean started;
+      public int counter;
+      public int end;
+
+      public Frame(Parser.Node node, SymbolTable context, boolean release) {
+        this.node = node;
+        this.context = context;
+        this.release = release;
+      }
+    }
+  }
+
+  /**
+   * A bounded queue of values for passing values between spawned functions.
+   */
+  public static class ChannelValue extends Value {
+    public final BlockingQueue<Value> queue;
+
+    public ChannelValue(int capacity) {
+      super(Type.Channel);
+      if (capacity <= 0) {
+        throw new IllegalStateException("ChannelValue::new - Tried to make a channel with capacity " + capacity);
+      }
+      this.queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * Waits until there is room in the channel, then adds value to it.
+     * @throws IllegalStateException if the wait was interrupted.
+     */
+    public void send(Value value) {
+      try {
+        queue.put(value.toVariable());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("ChannelValue::send - Interrupted", e);
+      }
+    }
+
+    /**
+     * Waits until the channel is not empty, then removes the oldest value from it.
+     * @throws IllegalStateException if the wait was interrupted.
+     */
+    public Value receive() {
+      try {
+        return queue.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("ChannelValue::receive - Interrupted", e);
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "<channel>";
+    }
+  }
+
+  /**
+   * A file opened for reading. The file is memory-mapped one window at a time, and lines are only decoded when they
+   * are read, so reading a file line by line takes the same amount of heap however large the file is.
+   */
+  public static class FileValue extends Value {
+    private static final long WINDOW = 1L << 30;
+
+    public final String path;
+    public final long size;
+    private final FileChannel channel;
+    private MappedByteBuffer window;
+    private long windowStart;
+    private long position;
+    private byte[] line;
+
+    /**
+     * @throws IllegalStateException if the file could not be opened.
+     */
+    public FileValue(String path) {
+      super(Type.File);
+      this.path = path;
+      try {
+        this.channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+        this.size = channel.size();
+      } catch (IOException e) {
+        throw new IllegalStateException("FileValue::new - Could not open \"" + path + "\": " + e.getMessage(), e);
+      }
+      this.position = 0;
+      this.line = new byte[256];
+    }
+
+    /**
+     * Maps the window of the file that starts at start.
+     */
+    private void map(long start) {
+      if (!channel.isOpen()) {
+        throw new IllegalStateException("FileValue::map - Tried to read from \"" + path + "\" after closing it");
+      }
+      try {
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW, size - start));
+      } catch (IOException e) {
+        throw new IllegalStateException("FileValue::map - Could not map \"" + path + "\": " + e.getMessage(), e);
+      }
+      windowStart = start;
+    }
+
+    public boolean hasLine() {
+      return position < size;
+    }
+
+    /**
+     * Reads the line starting at the current position, and moves past it and its line terminator.
+     * @return The line, without its line terminator.
+     * @throws IllegalStateException if there are no more lines.
+     */
+    public StringValue readLine() {
+      if (!hasLine()) {
+        throw new IllegalStateException("FileValue::readLine - No more lines in \"" + path + "\"");
+      }
+      if (window == null || !channel.isOpen() || position >= windowStart + window.limit()) {
+        map(position);
+      }
+      int end = indexOfNewline((int) (position - windowStart));
+      if (end < 0 && windowStart + window.limit() < size) {
+        // the line crosses the end of this window, so start the next window at the line
+        map(position);
+        end = indexOfNewline(0);
+      }
+      int from = (int) (position - windowStart);
+      int next;
+      if (end < 0) {
+        if (windowStart + window.limit() < size) {
+          throw new IllegalStateException("FileValue::readLine - Line at byte " + position + " of \"" + path + "\" is too long");
+        }
+        end = window.limit();
+        next = end;
+      } else {
+        next = end + 1;
+      }
+      if (end > from && window.get(end - 1) == '\r') {
+        end--;
+      }
+      position = windowStart + next;
+      return new StringValue(decode(from, end - from));
+    }
+
+    private int indexOfNewline(int from) {
+      for (int i = from; i < window.limit(); i++) {
+        if (window.get(i) == '\n') {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    private String decode(int from, int length) {
+      if (line.length < length) {
+        line = new byte[Math.max(length, line.length * 2)];
+      }
+      window.get(from, line, 0, length);
+      return new String(line, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads everything from the current position to the end of the file.
+     * @throws IllegalStateException if the rest of the file does not fit in a string.
+     */
+    public StringValue readAll() {
+      long remaining = size - position;
+      if (remaining > Integer.MAX_VALUE - 8) {
+        throw new IllegalStateException("FileValue::readAll - The rest of \"" + path + "\" is too large to read at once");
+      }
+      byte[] bytes = new byte[(int) remaining];
+      int copied = 0;
+      while (copied < bytes.length) {
+        if (window == null || !channel.isOpen() || position >= windowStart + window.limit()) {
+          map(position);
+        }
+        int from = (int) (position - windowStart);
+        int length = Math.min(window.limit() - from, bytes.length - copied);
+        window.get(from, bytes, copied, length);
+        copied += length;
+        position += length;
+      }
+      return new StringValue(new String(bytes, StandardCharsets.UTF_8));
+    }
+
+    public void close() {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        throw new IllegalStateException("FileValue::close - Could not close \"" + path + "\": " + e.getMessage(), e);
+      }
+      window = null;
+    }
+
+    @Override
+    public String toString() {
+      return "<file " + path + ">";
     }
   }
 
   public static class FunctionValue extends Value {
 
     public final String id;
-    public final Parser.Node todo;
-    public final List<Pair<String, Value.Type>> args;
+    /**
+     * The Symbol Table the function was declared in, which the Symbol Table of each call is nested in.
+     */
+    public final SymbolTable closure;
+    private volatile Definition definition;
+
+    /**
+     * @param closure The Symbol Table the function is declared in.
+     */
+    public FunctionValue(Parser.FunctionDeclarationNode funcDeclNode, SymbolTable closure) {
+      super(Type.Function);
+      this.closure = closure;
+      this.definition = new Definition(funcDeclNode);
+      this.id = mangleNameFunctionSide(funcDeclNode.id, definition.args);
+    }
+
+    /**
+     * A function whose body has been compiled to Java, for programs built by the Compiler.
+     * @param name    The un-mangled name of the function.
+     * @param body    Runs the body of the function in the Symbol Table of a call.
+     * @param closure The Symbol Table the function is declared in.
+     */
+    public FunctionValue(String name, List<Pair<String, Value.Type>> args, boolean retained, Function<SymbolTable, Value> body, SymbolTable closure) {
+      this(mangleNameFunctionSide(name, args), closure, new Definition(args, retained, body));
+    }
 
-    public FunctionValue(Parser.FunctionDeclarationNode funcDeclNode) {
+    private FunctionValue(String id, SymbolTable closure, Definition definition) {
       super(Type.Function);
-      this.todo = funcDeclNode.body;
-      this.args = new ArrayList<>();
-      for (Pair<String, String> arg : funcDeclNode.args) {
-        args.add(new Pair<>(arg.a, Type.fromString(arg.b)));
+      this.id = id;
+      this.closure = closure;
+      this.definition = definition;
+    }
+
+    /**
+     * @return A copy of this function that runs against a snapshot of its closure, for running on another thread.
+     */
+    public FunctionValue detach() {
+      return new FunctionValue(id, closure.snapshot(), definition);
+    }
+
+    /**
+     * Replaces the body and argument names of this function with those of redefinition, in one step. Calls that have
+     * already started finish with the old definition; every call after this one uses the new one, including calls
+     * through references to this FunctionValue that Symbol Tables have cached.
+     * @param redefinition The new version of this function.
+     * @throws IllegalStateException if redefinition has a different name or different argument types.
+     */
+    public void redefine(FunctionValue redefinition) {
+      if (!redefinition.id.equals(id)) {
+        throw new IllegalStateException("FunctionValue::redefine - Tried to redefine function " + id + " as " + redefinition.id);
       }
-      this.id = mangleNameFunctionSide(funcDeclNode.id, args);
+      definition = redefinition.definition;
     }
 
     public static String mangleNameFunctionSide(String id, List<Pair<String, Value.Type>> args) {
-      StringBuilder sb = new StringBuilder(id);
+      List<Value.Type> types = new ArrayList<>(args.size());
       for (Pair<String, Value.Type> arg : args) {
-        sb.append(arg.b);
+        types.add(arg.b);
+      }
+      return mangleName(id, types);
+    }
+
+    /**
+     * @return The name that a function called id, taking arguments of the given types in order, is declared under.
+     */
+    public static String mangleName(String id, List<Value.Type> types) {
+      StringBuilder sb = new StringBuilder(id);
+      for (Value.Type type : types) {
+        sb.append(type);
       }
       return sb.toString();
     }
@@ -674,15 +2401,33 @@ public class Interpreter {
       return sb.toString();
     }
 
+    /**
+     * Like setUpSymbolTable, for arguments whose types the TypeChecker has already matched to args.
+     * Precondition: argsIn.size() == args.size(), and the type of each of argsIn is that of the matching arg.
+     * @return A Symbol Table from the pool, nested in context and holding the arguments; the caller releases it.
+     */
+    public static SymbolTable setUpCheckedSymbolTable(SymbolTable context, List<Pair<String, Value.Type>> args, List<Value> argsIn) {
+      SymbolTable symb = SymbolTable.acquire(context);
+      for (int i = 0; i < args.size(); i++) {
+        symb.add(args.get(i).a, argsIn.get(i));
+      }
+      return symb;
+    }
+
+    /**
+     * @return A Symbol Table from the pool, nested in context and holding the arguments; the caller releases it.
+     * @throws IllegalStateException if argsIn does not match args.
+     */
     public static SymbolTable setUpSymbolTable(SymbolTable context, String id, List<Pair<String, Value.Type>> args, List<Value> argsIn) {
       if (args.size() != argsIn.size()) {
         throw new IllegalStateException("FunctionValue::setUpSymbolTable - Tried to call function " + id + ", which takes " + args.size() + " arguments, with " + argsIn.size() + " arguments.");
       }
-      SymbolTable symb = new SymbolTable(context);
+      SymbolTable symb = SymbolTable.acquire(context);
       for (int i = 0; i < args.size(); i++) {
         Pair<String, Value.Type> arg = args.get(i);
         Value argValue = argsIn.get(i);
         if (argValue.type != arg.b) {
+          SymbolTable.release(symb);
           throw new IllegalStateException("FunctionValue::setUpSymbolTable - Tried to call function " + id + ", whose " + i + "th argument is a " + arg.b + ", with a " + argValue.type);
         }
         symb.add(arg.a, argValue);
@@ -690,35 +2435,152 @@ public class Interpreter {
       return symb;
     }
 
+    /**
+     * Calls the function in a Symbol Table nested in its closure; the caller's context is not visible to it.
+     */
     @Override
     public Value call(SymbolTable context, List<Value> argsIn) {
-      SymbolTable symb = setUpSymbolTable(context, id, args, argsIn);
-      return Interpreter.interpret(symb, todo);
+      Definition definition = this.definition;
+      return call(definition, setUpSymbolTable(closure, id, definition.args, toVariables(argsIn)));
+    }
+
+    @Override
+    public Value callChecked(SymbolTable context, List<Value> argsIn) {
+      Definition definition = this.definition;
+      return call(definition, setUpCheckedSymbolTable(closure, definition.args, toVariables(argsIn)));
+    }
+
+    /**
+     * The body of a function can assign to its arguments, so they must not be constants. Builtins never assign to
+     * theirs, and copy what they store themselves, so they are passed constants as they are.
+     * @return argsIn, or a copy of it holding copies of its constants if it has any.
+     */
+    private static List<Value> toVariables(List<Value> argsIn) {
+      List<Value> copy = null;
+      for (int i = 0; i < argsIn.size(); i++) {
+        Value arg = argsIn.get(i);
+        Value variable = arg.toVariable();
+        if (variable != arg) {
+          if (copy == null) {
+            copy = new ArrayList<>(argsIn);
+          }
+          copy.set(i, variable);
+        }
+      }
+      return copy == null ? argsIn : copy;
+    }
+
+    private static Value call(Definition definition, SymbolTable symb) {
+      if (definition.compiled == null) {
+        Parser.Node body = definition.declaration.body();
+        if (definition.declaration.generator) {
+          // the body runs as the generator is consumed, in symb, which outlives this call
+          return new GeneratorValue(body, symb, !definition.retained);
+        }
+      }
+      if (Metrics.ENABLED) {
+        Metrics.enterFunction();
+      }
+      try {
+        return definition.compiled != null ? definition.compiled.apply(symb) : Interpreter.inline(symb, definition.declaration.body());
+      } finally {
+        if (Metrics.ENABLED) {
+          Metrics.exitFunction();
+        }
+        if (!definition.retained) {
+          SymbolTable.release(symb);
+        }
+      }
     }
 
     @Override
     public String toString() {
       return "fun " + id;
     }
+
+    /**
+     * The parts of a function that a reload can change, kept together so that they are swapped together.
+     */
+    private static class Definition {
+      /**
+       * The declaration of the function, whose body may only be parsed on the first call.
+       */
+      public final Parser.FunctionDeclarationNode declaration;
+      public final Function<SymbolTable, Value> compiled;
+      public final List<Pair<String, Value.Type>> args;
+      public final boolean retained;
+
+      public Definition(Parser.FunctionDeclarationNode funcDeclNode) {
+        this.declaration = funcDeclNode;
+        this.compiled = null;
+        this.retained = funcDeclNode.retained;
+        this.args = new ArrayList<>();
+        for (Pair<String, String> arg : funcDeclNode.args) {
+          args.add(new Pair<>(arg.a, Type.fromString(arg.b)));
+        }
+      }
+
+      public Definition(List<Pair<String, Value.Type>> args, boolean retained, Function<SymbolTable, Value> compiled) {
+        this.declaration = null;
+        this.compiled = compiled;
+        this.retained = retained;
+        this.args = args;
+      }
+    }
+  }
+
+  /**
+   * The body of a builtin function, given the arguments of a call by position, so that calling it needs no Symbol
+   * Table. See Builtins for making one from a static Java method.
+   */
+  @FunctionalInterface
+  public interface Builtin {
+    Value call(List<Value> args);
   }
 
   public static class BuiltinFunctionValue extends Value {
 
     public final String id;
-    public final List<Pair<String, Value.Type>> args;
-    public final Function<SymbolTable, Value> body;
+    public final List<Value.Type> args;
+    /**
+     * The type of the values this function returns, for the TypeChecker, or null if it is not always the same.
+     */
+    public final Value.Type returns;
+    public final Builtin body;
 
-    public BuiltinFunctionValue(String id, List<Pair<String, Value.Type>> args, Function<SymbolTable, Value> body) {
+    public BuiltinFunctionValue(String id, List<Value.Type> args, Value.Type returns, Builtin body) {
       super(Type.Function);
       this.body = body;
-      this.id = FunctionValue.mangleNameFunctionSide(id, args);
+      this.returns = returns;
+      this.id = FunctionValue.mangleName(id, args);
       this.args = args;
     }
 
+    /**
+     * @throws IllegalStateException if argsIn does not match args.
+     */
     @Override
     public Value call(SymbolTable context, List<Value> argsIn) {
-      SymbolTable symb = FunctionValue.setUpSymbolTable(context, id, args, argsIn);
-      return body.apply(symb);
+      if (args.size() != argsIn.size()) {
+        throw new IllegalStateException("BuiltinFunctionValue::call - Tried to call function " + id + ", which takes " + args.size() + " arguments, with " + argsIn.size() + " arguments.");
+      }
+      for (int i = 0; i < args.size(); i++) {
+        if (argsIn.get(i).type != args.get(i)) {
+          throw new IllegalStateException("BuiltinFunctionValue::call - Tried to call function " + id + ", whose " + i + "th argument is a " + args.get(i) + ", with a " + argsIn.get(i).type);
+        }
+      }
+      return callChecked(context, argsIn);
+    }
+
+    /**
+     * Passes argsIn straight to the body; unlike a FunctionValue, a builtin has no Symbol Table of its own.
+     */
+    @Override
+    public Value callChecked(SymbolTable context, List<Value> argsIn) {
+      if (Metrics.ENABLED) {
+        Metrics.builtinCalled();
+      }
+      return body.call(argsIn);
     }
 
     @Override
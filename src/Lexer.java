@@ -7,6 +7,14 @@ import java.util.List;
 
 public class Lexer {
   private static final HashMap<String, Token.Type> KEYWORDS = makeKeywords();
+  /**
+   * The classes of the ASCII characters, as a bit set of the flags below, so that the scanning loops test a whole
+   * class with one array load. Characters from 128 up are not in the table; they are classified by Character.
+   */
+  private static final byte[] ASCII = makeAscii();
+  private static final byte IDENTIFIER_START = 1;
+  private static final byte DIGIT = 2;
+  private static final byte IDENTIFIER_CONTINUE = IDENTIFIER_START | DIGIT;
 
   private static HashMap<String, Token.Type> makeKeywords() {
     HashMap<String, Token.Type> keywords = new HashMap<>();
@@ -18,9 +26,25 @@ public class Lexer {
     keywords.put("do", Token.Type.Do);
     keywords.put("var", Token.Type.Var);
     keywords.put("then", Token.Type.Then);
+    keywords.put("parallel", Token.Type.Parallel);
+    keywords.put("in", Token.Type.In);
+    keywords.put("yield", Token.Type.Yield);
     return keywords;
   }
 
+  private static byte[] makeAscii() {
+    byte[] ascii = new byte[128];
+    for (char ch = 0; ch < 128; ch++) {
+      if (Character.isLetter(ch) || ch == '_') {
+        ascii[ch] |= IDENTIFIER_START;
+      }
+      if (Character.isDigit(ch)) {
+        ascii[ch] |= DIGIT;
+      }
+    }
+    return ascii;
+  }
+
   private static char escape(State s) {
     if (s.cur() != '\\') throw new IllegalStateException("Lexer::escape - Nothing to escape at " + s.pos.toString());
     s.adv();
@@ -39,17 +63,43 @@ public class Lexer {
     } else if (s.cur() == '"') {
       s.adv();
       return '"';
+    } else if (s.cur() == '{') {
+      s.adv();
+      return '{';
     }
     throw new IllegalStateException("Lexer::escape - Unexpected escape character '" + s.cur() + "' at " + s.pos.toString());
   }
 
+  /**
+   * @param path The path of the file to lex.
+   * @return The tokens of the file, ending with Token.EOF.
+   * @throws IllegalStateException if the file contains something that is not a token.
+   */
   public static List<Token> lex(String path) {
-    State s = new State(path);
+    return lex(new State(path));
+  }
+
+  /**
+   * Lexes s.text from s.pos up to s.length. When this returns, s.pos is at s.length.
+   * @param s The state to lex from; it must start at the beginning of a token or of whitespace.
+   * @return The tokens that were lexed, ending with Token.EOF.
+   * @throws IllegalStateException if the text contains something that is not a token, or ends inside a string
+   *         literal or comment.
+   */
+  public static List<Token> lex(State s) {
+    long lexStart = Metrics.ENABLED ? System.nanoTime() : 0;
     while (s.cur() != 0) {
-      s.begin = s.pos.copy();
       if (s.cur() == ' ' /* handle whitespace */) {
-        s.adv();
-      } else if (s.cur() == ';' /* Type.Semicolon */) {
+        int end = s.pos.index + 1;
+        while (end < s.length && s.text[end] == ' ') {
+          end++;
+        }
+        s.skip(end - s.pos.index);
+        continue;
+      }
+      // every other iteration adds at most one token, which can keep this copy as its position
+      s.begin = s.pos.copy();
+      if (s.cur() == ';' /* Type.Semicolon */) {
         s.adv();
         // never put 2 newlines in a row
         if (s.tokens.isEmpty() || s.tokens.get(s.tokens.size() - 1).type == Token.Type.Newline) {
@@ -68,17 +118,22 @@ public class Lexer {
       } else if (s.cur() == '/' /* Type.Div */) {
         s.adv();
         if (s.cur() == '/') {
-          while (s.cur() != '\n') {
-            s.adv();
+          int end = s.pos.index;
+          while (end < s.length && s.text[end] != '\n' && s.text[end] != 0) {
+            end++;
           }
+          s.skip(end - s.pos.index);
           continue;
         } else if (s.cur() == '*') {
-          s.adv();
-          while (s.cur() != '*' || s.relative(1) != '/') {
-            s.adv();
+          int end = s.pos.index + 1;
+          while (end + 1 >= s.length || s.text[end] != '*' || s.text[end + 1] != '/') {
+            if (end >= s.length || s.text[end] == 0) {
+              s.advanceTo(Math.min(end, s.length));
+              throw new IllegalStateException("Lexer::lex - Unterminated comment starting at " + s.begin.toString());
+            }
+            end++;
           }
-          s.adv();
-          s.adv();
+          s.advanceTo(end + 2);
           continue;
         }
         s.add(Token.Type.Div, "/");
@@ -98,6 +153,22 @@ public class Lexer {
       } else if (s.cur() == ':' /* Type.Colon */) {
         s.add(Token.Type.Colon, ":");
         s.adv();
+      } else if (s.cur() == '.' /* Type.DotDot */) {
+        s.adv();
+        if (s.cur() != '.') {
+          throw new IllegalStateException("Expected '.', got '" + s.cur() + "' at " + s.pos.toString());
+        }
+        s.adv();
+        s.add(Token.Type.DotDot, "..");
+      } else if (s.cur() == ',' /* Type.Comma */) {
+        s.add(Token.Type.Comma, ",");
+        s.adv();
+      } else if (s.cur() == '[' /* Type.LBracket */) {
+        s.add(Token.Type.LBracket, "[");
+        s.adv();
+      } else if (s.cur() == ']' /* Type.RBracket */) {
+        s.add(Token.Type.RBracket, "]");
+        s.adv();
       } else if (s.cur() == '\n' /* Type.Newline */) {
         s.adv();
         /* Don't want more than 1 newline token in a row */
@@ -155,48 +226,122 @@ public class Lexer {
         }
       } else if (s.cur() == '"') {
         s.adv();
-        StringBuilder sb = new StringBuilder();
-        while (s.cur() != '"') {
-          if (s.cur() == '\\') {
-            sb.append(escape(s));
-            continue;
-          }
-          sb.append(s.cur());
-          s.adv();
-          if (s.cur() == 0) break;
-        }
+        string(s, false);
+      } else if (s.cur() == '}' && s.interpolations > 0) {
+        // the end of an expression interpolated into a string literal, whose text carries on from here
         s.adv();
-        s.add(Token.Type.String, sb.toString());
+        string(s, true);
       } else if (isIdentifierStart(s.cur())) {
-        StringBuilder id = new StringBuilder();
-        while (isIdentifierContinue(s.cur())) {
-          id.append(s.cur());
-          s.adv();
-        }
-        String str = id.toString();
+        int end = scan(s, IDENTIFIER_CONTINUE);
+        String str = new String(s.text, s.pos.index, end - s.pos.index);
+        s.skip(end - s.pos.index);
         s.add(KEYWORDS.getOrDefault(str, Token.Type.Identifier), str);
       } else if (Character.isDigit(s.cur())) {
-        StringBuilder number = new StringBuilder();
-        while (Character.isDigit(s.cur())) {
-          number.append(s.cur());
-          s.adv();
-        }
-        s.add(Token.Type.Integer, number.toString());
+        int end = scan(s, DIGIT);
+        String number = new String(s.text, s.pos.index, end - s.pos.index);
+        s.skip(end - s.pos.index);
+        s.add(Token.Type.Integer, number);
       } else {
         throw new IllegalStateException("found invalid character '" + s.cur() + "' at " + s.pos.toString());
       }
     }
 
+    if (s.interpolations > 0) {
+      throw new IllegalStateException("Lexer::lex - Unterminated interpolation in a string literal at " + s.pos.toString());
+    }
     s.tokens.add(Token.EOF);
+    if (Metrics.ENABLED) {
+      Metrics.lexed(lexStart);
+    }
     return s.tokens;
   }
 
+  /**
+   * Lexes the text of a string literal up to its closing quote, or up to a '{' that starts an expression to interpolate
+   * into it. A literal without interpolations is one String token. One with them is an InterpolationStart token
+   * holding the text before the first '{', followed by the tokens of each expression, each expression but the last
+   * followed by an InterpolationMiddle token holding the text up to the next '{', and the last by an InterpolationEnd
+   * token holding the rest of the text. "\{" is a '{' that starts no expression.
+   * Precondition: s.cur() is the first character of text in the literal, after its opening quote or after the '}' of an
+   *               interpolated expression.
+   * @param resumed Whether the text follows an interpolated expression.
+   */
+  private static void string(State s, boolean resumed) {
+    // the literal is taken from the text in runs between escapes; one without escapes is a single copy
+    StringBuilder sb = null;
+    while (true) {
+      int start = s.pos.index;
+      int end = start;
+      while (end < s.length && s.text[end] != '"' && s.text[end] != '\\' && s.text[end] != '{' && s.text[end] != 0) {
+        end++;
+      }
+      if (end >= s.length || s.text[end] == 0) {
+        s.advanceTo(end);
+        throw new IllegalStateException("Lexer::lex - Unterminated string literal starting at " + s.begin.toString());
+      }
+      if (s.text[end] != '\\' && sb == null) {
+        s.advanceTo(end + 1);
+        addString(s, resumed, s.text[end] == '{', new String(s.text, start, end - start));
+        return;
+      }
+      if (sb == null) {
+        sb = new StringBuilder();
+      }
+      sb.append(s.text, start, end - start);
+      s.advanceTo(end);
+      if (s.text[end] != '\\') {
+        s.adv();
+        addString(s, resumed, s.text[end] == '{', sb.toString());
+        return;
+      }
+      sb.append(escape(s));
+    }
+  }
+
+  /**
+   * Adds the token for a run of text in a string literal.
+   * @param resumed Whether the text follows an interpolated expression.
+   * @param opened  Whether the text is followed by an expression to interpolate, rather than the closing quote.
+   */
+  private static void addString(State s, boolean resumed, boolean opened, String text) {
+    if (opened) {
+      s.add(resumed ? Token.Type.InterpolationMiddle : Token.Type.InterpolationStart, text);
+      if (!resumed) {
+        s.interpolations++;
+      }
+    } else if (resumed) {
+      s.add(Token.Type.InterpolationEnd, text);
+      s.interpolations--;
+    } else {
+      s.add(Token.Type.String, text);
+    }
+  }
+
+  /**
+   * Precondition: s.cur() belongs to the class.
+   * @param s     The state to scan from.
+   * @param flags IDENTIFIER_CONTINUE or DIGIT.
+   * @return The index of the first character from s.pos that does not belong to the class, or s.length.
+   */
+  private static int scan(State s, byte flags) {
+    char[] text = s.text;
+    int end = s.pos.index + 1;
+    while (end < s.length) {
+      char ch = text[end];
+      if (ch < 128 ? (ASCII[ch] & flags) == 0 : !(flags == DIGIT ? Character.isDigit(ch) : isIdentifierContinue(ch))) {
+        break;
+      }
+      end++;
+    }
+    return end;
+  }
+
   private static boolean isIdentifierStart(char ch) {
-    return Character.isLetter(ch) || ch == '_';
+    return ch < 128 ? (ASCII[ch] & IDENTIFIER_START) != 0 : Character.isLetter(ch);
   }
 
   private static boolean isIdentifierContinue(char ch) {
-    return isIdentifierStart(ch) || Character.isDigit(ch);
+    return ch < 128 ? (ASCII[ch] & IDENTIFIER_CONTINUE) != 0 : Character.isLetter(ch) || Character.isDigit(ch);
   }
 
   public static class Token {
@@ -214,6 +359,8 @@ public class Lexer {
     public enum Type {
       LParen,
       RParen,
+      LBracket,
+      RBracket,
       End,
       If,
       Else,
@@ -244,7 +391,14 @@ public class Lexer {
       String,
       For,
       Do,
-      Then
+      Then,
+      Parallel,
+      In,
+      DotDot,
+      Yield,
+      InterpolationStart,
+      InterpolationMiddle,
+      InterpolationEnd
     }
   }
 
@@ -254,6 +408,10 @@ public class Lexer {
     public char[] text;
     public int length;
     public final ArrayList<Token> tokens;
+    /**
+     * The number of string literals whose interpolated expressions are being lexed, one inside another.
+     */
+    public int interpolations;
 
     public State(String path) {
       try {
@@ -268,8 +426,20 @@ public class Lexer {
       this.tokens = new ArrayList<>();
     }
 
+    /**
+     * @param text   The text to lex from; it is not copied.
+     * @param length The index in text to stop lexing at.
+     * @param start  The position in text to start lexing at.
+     */
+    public State(char[] text, int length, Position start) {
+      this.text = text;
+      this.length = length;
+      this.pos = start;
+      this.tokens = new ArrayList<>();
+    }
+
     public void add(Token.Type type, String contents) {
-      tokens.add(new Token(type, contents, begin.copy()));
+      tokens.add(new Token(type, contents, begin));
     }
 
     public char cur() {
@@ -287,6 +457,36 @@ public class Lexer {
       return text[index];
     }
 
+    /**
+     * Advances n characters at once, as n calls to adv would.
+     * Precondition: none of the n - 1 characters after the current one is a newline.
+     */
+    public void skip(int n) {
+      pos.index += n;
+      pos.column += n;
+      if (pos.index < length && text[pos.index] == '\n') {
+        pos.row++;
+        pos.column = 0;
+      }
+    }
+
+    /**
+     * Advances to index end, as calls to adv would, counting the newlines on the way.
+     * Precondition: end >= pos.index
+     */
+    public void advanceTo(int end) {
+      int last = Math.min(end, length - 1);
+      int newline = -1;
+      for (int i = pos.index + 1; i <= last; i++) {
+        if (text[i] == '\n') {
+          pos.row++;
+          newline = i;
+        }
+      }
+      pos.column = newline < 0 ? pos.column + end - pos.index : end - newline;
+      pos.index = end;
+    }
+
     public void adv() {
       pos.index++;
       pos.column++;
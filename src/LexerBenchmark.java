@@ -0,0 +1,54 @@
+import java.util.List;
+
+/**
+ * Measures how fast Lexer.lex gets through a large generated script, in megabytes of source per second.
+ * <p>
+ * The script mixes what real programs are made of: function declarations, long identifiers, numbers, operators,
+ * string literals with and without escapes, and line and block comments, all indented with runs of spaces. It is
+ * lexed repeatedly from memory, so that the file system plays no part, and the first rounds only warm the JIT up.
+ * <p>
+ * Usage: java LexerBenchmark [lines of script, default 200000] [rounds, default 10]
+ */
+public class LexerBenchmark {
+  public static void main(String[] args) {
+    int lines = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+    int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+    char[] text = script(lines).toCharArray();
+
+    int tokens = 0;
+    long best = Long.MAX_VALUE;
+    for (int i = 0; i < rounds; i++) {
+      long start = System.nanoTime();
+      List<Lexer.Token> lexed = Lexer.lex(new Lexer.State(text, text.length, new Position(0, 1, 1, "<benchmark>")));
+      long elapsed = System.nanoTime() - start;
+      tokens = lexed.size();
+      if (i >= rounds / 2) {
+        best = Math.min(best, elapsed);
+      }
+    }
+    double megabytes = text.length / 1e6;
+    System.out.printf("%d chars, %d tokens: best %.1f ms, %.1f MB/s%n", text.length, tokens, best / 1e6, megabytes / (best / 1e9));
+  }
+
+  /**
+   * @param lines About how many lines the script should have.
+   * @return The text of a well-formed script.
+   */
+  public static String script(int lines) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; sb.length() == 0 || lines > 0; i++) {
+      sb.append("// function number ").append(i).append(", generated for the benchmark\n");
+      sb.append("fun compute_value_").append(i).append("(first_argument: int, second_argument: int)\n");
+      sb.append("  /* the body adds, multiplies\n     and compares its arguments */\n");
+      sb.append("  var accumulated_total: int <- first_argument * ").append(i).append(" + second_argument % 1234567\n");
+      sb.append("  var label: string <- \"result of compute_value_").append(i).append(" is ready\\n\"\n");
+      sb.append("  if accumulated_total >= 1000000 && second_argument != 0 then\n");
+      sb.append("    accumulated_total <- accumulated_total / second_argument - 42\n");
+      sb.append("  end\n");
+      sb.append("  accumulated_total\n");
+      sb.append("end\n");
+      lines -= 10;
+    }
+    return sb.toString();
+  }
+}
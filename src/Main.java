@@ -1,40 +1,319 @@
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.lang.invoke.MethodHandles;
+import java.nio.file.Paths;
 import java.util.List;
 import java.util.Scanner;
-import java.util.function.Function;
 
 public class Main {
+  /**
+   * With no arguments, reads the path of a program from stdin and runs it.
+   * With --repl, starts an interactive session instead.
+   * With --watch, reads the path the same way, and reloads the program's functions whenever the file changes.
+   * With --lazy as well, only scans the body of each function up front, and parses it the first time the function is
+   * called, so that a program which calls few of the functions it declares starts sooner; a malformed body, or a type
+   * error in one, is then only reported when the function is first called.
+   * With --profile as well, prints the branch counts gathered while the program ran to stderr once it finishes.
+   * With --compile &lt;jar&gt;, reads the path the same way, and compiles the program into a runnable JAR instead of
+   * running it.
+   * With --batch, reads paths (or directories of scripts) from stdin until it runs out, and runs them all through a
+   * pipeline, printing each script's timings and then the totals to stderr; --lexers, --parsers and --runners give
+   * the number of threads of each stage (1 each by default), and --queue the room between stages (16 by default).
+   * Scripts run in the order of their paths, one after another unless there is more than one runner; see Batch.
+   * Exits with status 1 if any script failed.
+   * With -Dinterpreter.metrics=true given to java, the interpreter's counters are exposed over JMX; see Metrics.
+   */
   public static void main(String[] args) {
+    List<String> flags = List.of(args);
+    Interpreter.profile = flags.contains("--profile");
+    if (flags.contains("--repl")) {
+      Repl.run(makeGlobal(), new BufferedReader(new InputStreamReader(System.in)));
+      return;
+    }
+    if (flags.contains("--batch")) {
+      int failed = 1;
+      try {
+        Batch batch = new Batch(intFlag(flags, "--lexers", 1), intFlag(flags, "--parsers", 1), intFlag(flags, "--runners", 1), intFlag(flags, "--queue", 16));
+        failed = batch.run(Batch.readPaths(new BufferedReader(new InputStreamReader(System.in))), System.err);
+      } catch (Exception e) {
+        e.printStackTrace();
+      } finally {
+        Interpreter.OUT.flush();
+        if (Interpreter.profile) {
+          Interpreter.dumpProfile(System.err);
+        }
+      }
+      if (failed > 0) {
+        System.exit(1);
+      }
+      return;
+    }
+
     String path = new Scanner(System.in).nextLine();
     try {
+      if (flags.contains("--compile")) {
+        Compiler.compile(path, Paths.get(flags.get(flags.indexOf("--compile") + 1)));
+        return;
+      }
+      if (flags.contains("--watch")) {
+        Watcher.watch(path);
+        return;
+      }
       List<Lexer.Token> tokens = Lexer.lex(path);
-      Parser.Node ast = Parser.parse(tokens);
-      Interpreter.SymbolTable global = new Interpreter.SymbolTable();
+      Interpreter.SymbolTable global = makeGlobal();
+      Parser.Node ast = TypeChecker.check(Resolver.resolve(Parser.parse(tokens, flags.contains("--lazy"))), global);
+      Interpreter.interpret(global, ast);
+    } catch (Exception e) {
+      Interpreter.OUT.flush();
+      e.printStackTrace();
+    } finally {
+      Interpreter.OUT.flush();
+      if (Interpreter.profile) {
+        Interpreter.dumpProfile(System.err);
+      }
+    }
+  }
+
+  /**
+   * @return The number following name in flags, or otherwise if name is not there.
+   * @throws IllegalStateException if name is not followed by a number.
+   */
+  private static int intFlag(List<String> flags, String name, int otherwise) {
+    int at = flags.indexOf(name);
+    if (at < 0) {
+      return otherwise;
+    }
+    if (at + 1 >= flags.size()) {
+      throw new IllegalStateException("Main::intFlag - Expected a number after " + name);
+    }
+    try {
+      return Integer.parseInt(flags.get(at + 1));
+    } catch (NumberFormatException e) {
+      throw new IllegalStateException("Main::intFlag - Expected a number after " + name + ", got " + flags.get(at + 1));
+    }
+  }
+
+  /**
+   * @return A Symbol Table holding every builtin function and variable, for a program to run in.
+   */
+  public static Interpreter.SymbolTable makeGlobal() {
+    Interpreter.SymbolTable global = new Interpreter.SymbolTable();
+    Builtins.register(global, MethodHandles.lookup());
+    global.add("true", new Interpreter.IntegerValue(1));
+    global.add("false", new Interpreter.IntegerValue(0));
+    return global;
+  }
 
-      global.addBuiltinFunc("int", List.of(new Pair<>("value", Interpreter.Value.Type.String)), (context) -> context.get("value").toIntValue());
-      global.addBuiltinFunc("int", List.of(new Pair<>("value", Interpreter.Value.Type.Integer)), (context) -> context.get("value").toIntValue());
+  @Builtins.Export(name = "int")
+  private static Interpreter.IntegerValue toInt(@Builtins.Of({Interpreter.Value.Type.String, Interpreter.Value.Type.Integer}) Interpreter.Value value) {
+    return value.toIntValue();
+  }
 
-      global.addBuiltinFunc("string", List.of(new Pair<>("value", Interpreter.Value.Type.String)), (context) -> context.get("value").toStringValue());
-      global.addBuiltinFunc("string", List.of(new Pair<>("value", Interpreter.Value.Type.Integer)), (context) -> context.get("value").toStringValue());
+  @Builtins.Export(name = "string")
+  private static Interpreter.StringValue toText(@Builtins.Of({Interpreter.Value.Type.String, Interpreter.Value.Type.Integer, Interpreter.Value.Type.Builder}) Interpreter.Value value) {
+    return value.toStringValue();
+  }
 
-      Function<Interpreter.SymbolTable, Interpreter.Value> printBody = (context) -> {
-        System.out.println(context.get("value").toString());
-        return Interpreter.VoidValue.VOID;
-      };
-      global.addBuiltinFunc("print", List.of(new Pair<>("value", Interpreter.Value.Type.Integer)), printBody);
-      global.addBuiltinFunc("print", List.of(new Pair<>("value", Interpreter.Value.Type.String)), printBody);
-      global.addBuiltinFunc("print", List.of(new Pair<>("value", Interpreter.Value.Type.Function)), printBody);
-      global.addBuiltinFunc("print", List.of(new Pair<>("value", Interpreter.Value.Type.Void)), printBody);
+  @Builtins.Export
+  private static void print(Interpreter.Value value) {
+    Interpreter.OUT.println(value.toString());
+  }
 
-      global.addBuiltinFunc("length", List.of(new Pair<>("value", Interpreter.Value.Type.String)), (context) -> {
-        return new Interpreter.IntegerValue(((Interpreter.StringValue) context.get("value")).value.length());
-      });
+  @Builtins.Export
+  private static void flush() {
+    Interpreter.OUT.flush();
+  }
 
-      global.add("true", new Interpreter.IntegerValue(1));
-      global.add("false", new Interpreter.IntegerValue(0));
+  @Builtins.Export
+  private static Interpreter.IntegerValue length(Interpreter.StringValue value) {
+    return new Interpreter.IntegerValue(value.length);
+  }
 
-      Interpreter.interpret(global, ast);
-    } catch (Exception e) {
-      e.printStackTrace();
+  // The constructors and bulk operations for arrays and lists. The bulk operations work directly on the primitive
+  // storage of Interpreter.ArrayValue, so none of them box the elements.
+
+  @Builtins.Export
+  private static Interpreter.ArrayValue array(Interpreter.IntegerValue length) {
+    if (length.value < 0) {
+      throw new IllegalStateException("array - Tried to make an array of length " + length.value);
+    }
+    return new Interpreter.ArrayValue(length.value);
+  }
+
+  @Builtins.Export
+  private static Interpreter.ListValue list() {
+    return new Interpreter.ListValue();
+  }
+
+  @Builtins.Export
+  private static void push(Interpreter.ListValue value, Interpreter.IntegerValue element) {
+    value.push(element.value);
+  }
+
+  @Builtins.Export
+  private static Interpreter.IntegerValue pop(Interpreter.ListValue value) {
+    return new Interpreter.IntegerValue(value.pop());
+  }
+
+  @Builtins.Export
+  private static Interpreter.IntegerValue length(Interpreter.ArrayValue value) {
+    return new Interpreter.IntegerValue(value.size);
+  }
+
+  @Builtins.Export
+  private static Interpreter.IntegerValue sum(Interpreter.ArrayValue value) {
+    return new Interpreter.IntegerValue(value.sum());
+  }
+
+  @Builtins.Export
+  private static void fill(Interpreter.ArrayValue value, Interpreter.IntegerValue element) {
+    value.fill(element.value);
+  }
+
+  @Builtins.Export
+  private static void sort(Interpreter.ArrayValue value) {
+    value.sort();
+  }
+
+  @Builtins.Export
+  private static Interpreter.ArrayValue copyRange(Interpreter.ArrayValue value, Interpreter.IntegerValue from, Interpreter.IntegerValue to) {
+    return value.copyRange(from.value, to.value);
+  }
+
+  // The constructor and operations for maps. Keys may be ints or strings; values may be of any type.
+
+  @Builtins.Export
+  private static Interpreter.MapValue map() {
+    return new Interpreter.MapValue();
+  }
+
+  @Builtins.Export
+  private static Interpreter.IntegerValue size(Interpreter.MapValue value) {
+    return new Interpreter.IntegerValue(value.size);
+  }
+
+  @Builtins.Export
+  private static Interpreter.Value get(Interpreter.MapValue value, @Builtins.Of({Interpreter.Value.Type.Integer, Interpreter.Value.Type.String}) Interpreter.Value key) {
+    return value.index(key);
+  }
+
+  @Builtins.Export
+  private static Interpreter.IntegerValue contains(Interpreter.MapValue value, @Builtins.Of({Interpreter.Value.Type.Integer, Interpreter.Value.Type.String}) Interpreter.Value key) {
+    return new Interpreter.IntegerValue(value.contains(key) ? 1 : 0);
+  }
+
+  @Builtins.Export
+  private static Interpreter.IntegerValue remove(Interpreter.MapValue value, @Builtins.Of({Interpreter.Value.Type.Integer, Interpreter.Value.Type.String}) Interpreter.Value key) {
+    return new Interpreter.IntegerValue(value.remove(key) ? 1 : 0);
+  }
+
+  @Builtins.Export
+  private static void put(Interpreter.MapValue value, @Builtins.Of({Interpreter.Value.Type.Integer, Interpreter.Value.Type.String}) Interpreter.Value key, Interpreter.Value element) {
+    value.put(key, element);
+  }
+
+  // spawn and join for running functions concurrently, and the constructor and operations for channels.
+
+  @Builtins.Export
+  private static Interpreter.TaskValue spawn(@Builtins.Of(Interpreter.Value.Type.Function) Interpreter.Value value) {
+    return new Interpreter.TaskValue(value);
+  }
+
+  @Builtins.Export
+  private static Interpreter.Value join(Interpreter.TaskValue value) {
+    return value.join();
+  }
+
+  @Builtins.Export
+  private static Interpreter.ChannelValue channel(Interpreter.IntegerValue capacity) {
+    return new Interpreter.ChannelValue(capacity.value);
+  }
+
+  @Builtins.Export
+  private static Interpreter.Value receive(Interpreter.ChannelValue value) {
+    return value.receive();
+  }
+
+  @Builtins.Export
+  private static void send(Interpreter.ChannelValue value, Interpreter.Value element) {
+    value.send(element);
+  }
+
+  // Reading files.
+
+  @Builtins.Export
+  private static Interpreter.FileValue open(Interpreter.StringValue path) {
+    return new Interpreter.FileValue(path.value());
+  }
+
+  @Builtins.Export
+  private static Interpreter.IntegerValue hasLine(Interpreter.FileValue value) {
+    return new Interpreter.IntegerValue(value.hasLine() ? 1 : 0);
+  }
+
+  @Builtins.Export
+  private static Interpreter.StringValue readLine(Interpreter.FileValue value) {
+    return value.readLine();
+  }
+
+  @Builtins.Export
+  private static Interpreter.StringValue readAll(Interpreter.FileValue value) {
+    return value.readAll();
+  }
+
+  @Builtins.Export
+  private static Interpreter.IntegerValue size(Interpreter.FileValue value) {
+    if (value.size > Integer.MAX_VALUE) {
+      throw new IllegalStateException("size - \"" + value.path + "\" is too large for an <int>");
     }
+    return new Interpreter.IntegerValue((int) value.size);
+  }
+
+  @Builtins.Export
+  private static void close(Interpreter.FileValue value) {
+    value.close();
+  }
+
+  // Taking strings apart, and the constructor and operations for builders. Slices taken by substring, charAt and split
+  // share the characters of the string they were taken from.
+
+  @Builtins.Export
+  private static Interpreter.StringValue substring(Interpreter.StringValue value, Interpreter.IntegerValue from, Interpreter.IntegerValue to) {
+    return value.slice(from.value, to.value);
+  }
+
+  @Builtins.Export
+  private static Interpreter.StringValue charAt(Interpreter.StringValue value, Interpreter.IntegerValue index) {
+    return value.slice(index.value, index.value + 1);
+  }
+
+  @Builtins.Export
+  private static Interpreter.IntegerValue indexOf(Interpreter.StringValue value, Interpreter.StringValue needle) {
+    return new Interpreter.IntegerValue(value.indexOf(needle, 0));
+  }
+
+  @Builtins.Export
+  private static Interpreter.IntegerValue indexOf(Interpreter.StringValue value, Interpreter.StringValue needle, Interpreter.IntegerValue from) {
+    return new Interpreter.IntegerValue(value.indexOf(needle, from.value));
+  }
+
+  @Builtins.Export
+  private static Interpreter.MapValue split(Interpreter.StringValue value, Interpreter.StringValue separator) {
+    return value.split(separator);
+  }
+
+  @Builtins.Export
+  private static Interpreter.BuilderValue builder() {
+    return new Interpreter.BuilderValue();
+  }
+
+  @Builtins.Export
+  private static Interpreter.BuilderValue append(Interpreter.BuilderValue value, @Builtins.Of({Interpreter.Value.Type.String, Interpreter.Value.Type.Integer}) Interpreter.Value element) {
+    return value.append(element);
+  }
+
+  @Builtins.Export
+  private static Interpreter.IntegerValue length(Interpreter.BuilderValue value) {
+    return new Interpreter.IntegerValue(value.builder.length());
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,211 @@
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of what the interpreter is doing, exposed over JMX as the MXBean Interpreter:type=Metrics.
+ * <p>
+ * They are off unless the JVM is started with -Dinterpreter.metrics=true. ENABLED is a static final, so while they
+ * are off the JIT drops every check of it along with the counting behind it, and the interpreter runs as if they
+ * did not exist. While they are on, every counter is a LongAdder or LongAccumulator, which spread their updates over
+ * cells rather than contending for one, so threads running at the same time (such as the iterations of a parallel
+ * for loop) do not serialize on them. The call depth is tracked per thread, and only a new high-water mark of a
+ * thread is written to the shared counter.
+ */
+public class Metrics {
+  public static final boolean ENABLED = Boolean.getBoolean("interpreter.metrics");
+  public static final String OBJECT_NAME = "Interpreter:type=Metrics";
+
+  private static final LongAdder FUNCTION_CALLS = new LongAdder();
+  private static final LongAdder BUILTIN_CALLS = new LongAdder();
+  private static final LongAccumulator MAX_CALL_DEPTH = new LongAccumulator(Long::max, 0);
+  private static final LongAdder SYMBOL_TABLES_CREATED = new LongAdder();
+  private static final LongAdder SYMBOL_TABLES_REUSED = new LongAdder();
+  private static final LongAdder[] VALUES_ALLOCATED = makeAdders(Interpreter.Value.Type.values().length);
+  private static final LongAdder LEX_NANOS = new LongAdder();
+  private static final LongAdder PARSE_NANOS = new LongAdder();
+  /**
+   * The current call depth of a thread, and the deepest it has been.
+   */
+  private static final ThreadLocal<int[]> DEPTH = ThreadLocal.withInitial(() -> new int[2]);
+
+  static {
+    if (ENABLED) {
+      try {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(new Bean(), new ObjectName(OBJECT_NAME));
+      } catch (JMException e) {
+        throw new IllegalStateException("Metrics::register - Could not register " + OBJECT_NAME, e);
+      }
+    }
+  }
+
+  private static LongAdder[] makeAdders(int count) {
+    LongAdder[] adders = new LongAdder[count];
+    for (int i = 0; i < count; i++) {
+      adders[i] = new LongAdder();
+    }
+    return adders;
+  }
+
+  /**
+   * Precondition: ENABLED. Called as a function starts running, with exitFunction called as it finishes.
+   */
+  public static void enterFunction() {
+    FUNCTION_CALLS.increment();
+    int[] depth = DEPTH.get();
+    if (++depth[0] > depth[1]) {
+      depth[1] = depth[0];
+      MAX_CALL_DEPTH.accumulate(depth[0]);
+    }
+  }
+
+  /**
+   * Precondition: ENABLED
+   */
+  public static void exitFunction() {
+    DEPTH.get()[0]--;
+  }
+
+  /**
+   * Precondition: ENABLED
+   */
+  public static void builtinCalled() {
+    BUILTIN_CALLS.increment();
+  }
+
+  /**
+   * Precondition: ENABLED
+   */
+  public static void symbolTableCreated() {
+    SYMBOL_TABLES_CREATED.increment();
+  }
+
+  /**
+   * Precondition: ENABLED. Called when a Symbol Table is taken from the pool instead of being made.
+   */
+  public static void symbolTableReused() {
+    SYMBOL_TABLES_REUSED.increment();
+  }
+
+  /**
+   * Precondition: ENABLED
+   */
+  public static void valueAllocated(Interpreter.Value.Type type) {
+    VALUES_ALLOCATED[type.ordinal()].increment();
+  }
+
+  /**
+   * Precondition: ENABLED
+   * @param start When the lexing started, as given by System.nanoTime.
+   */
+  public static void lexed(long start) {
+    LEX_NANOS.add(System.nanoTime() - start);
+  }
+
+  /**
+   * Precondition: ENABLED
+   * @param start When the parsing started, as given by System.nanoTime.
+   */
+  public static void parsed(long start) {
+    PARSE_NANOS.add(System.nanoTime() - start);
+  }
+
+  /**
+   * The attributes of Interpreter:type=Metrics. Every count is since the interpreter started.
+   */
+  public interface MetricsMXBean {
+    long getFunctionCalls();
+
+    /**
+     * @return The number of function calls per second since the previous read of this attribute, or since the
+     *         interpreter started for the first read.
+     */
+    double getFunctionCallsPerSecond();
+
+    long getBuiltinCalls();
+
+    /**
+     * @return The deepest that the function calls of any one thread have been nested.
+     */
+    long getMaxCallDepth();
+
+    long getSymbolTablesCreated();
+
+    /**
+     * @return The number of Symbol Tables taken from the pool instead of being made.
+     */
+    long getSymbolTablesReused();
+
+    /**
+     * @return The number of values made of each type.
+     */
+    Map<String, Long> getValuesAllocated();
+
+    double getLexMillis();
+
+    double getParseMillis();
+  }
+
+  private static class Bean implements MetricsMXBean {
+    private long lastSample = System.nanoTime();
+    private long lastCalls;
+
+    @Override
+    public long getFunctionCalls() {
+      return FUNCTION_CALLS.sum();
+    }
+
+    @Override
+    public synchronized double getFunctionCallsPerSecond() {
+      long now = System.nanoTime();
+      long calls = FUNCTION_CALLS.sum();
+      double rate = (calls - lastCalls) * 1e9 / Math.max(1, now - lastSample);
+      lastSample = now;
+      lastCalls = calls;
+      return rate;
+    }
+
+    @Override
+    public long getBuiltinCalls() {
+      return BUILTIN_CALLS.sum();
+    }
+
+    @Override
+    public long getMaxCallDepth() {
+      return MAX_CALL_DEPTH.get();
+    }
+
+    @Override
+    public long getSymbolTablesCreated() {
+      return SYMBOL_TABLES_CREATED.sum();
+    }
+
+    @Override
+    public long getSymbolTablesReused() {
+      return SYMBOL_TABLES_REUSED.sum();
+    }
+
+    @Override
+    public Map<String, Long> getValuesAllocated() {
+      Map<String, Long> allocated = new LinkedHashMap<>();
+      for (Interpreter.Value.Type type : Interpreter.Value.Type.values()) {
+        allocated.put(type.toString(), VALUES_ALLOCATED[type.ordinal()].sum());
+      }
+      return allocated;
+    }
+
+    @Override
+    public double getLexMillis() {
+      return LEX_NANOS.sum() / 1e6;
+    }
+
+    @Override
+    public double getParseMillis() {
+      return PARSE_NANOS.sum() / 1e6;
+    }
+  }
+}
@@ -2,6 +2,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.function.Function;
 
 public class Parser {
@@ -34,11 +35,28 @@ public class Parser {
    * @throws IllegalStateException, if the parser detects a malformed program.
    */
   public static Node parse(List<Lexer.Token> toks) {
+    return parse(toks, false);
+  }
+
+  /**
+   * @param toks List of Lexer.Token
+   * @param lazy Whether to only scan the body of each function, and parse it the first time it is called; see
+   *             FunctionDeclarationNode.body().
+   * @return The Abstract Syntax Tree (AST) that corresponds to the list of Lexer.Token
+   * @throws IllegalStateException, if the parser detects a malformed program. With lazy, a malformed function body
+   *         is only detected when the function is first called.
+   */
+  public static Node parse(List<Lexer.Token> toks, boolean lazy) {
     final String loc = "Parser::parse";
+    long start = Metrics.ENABLED ? System.nanoTime() : 0;
 
     State s = new State(toks);
+    s.lazy = lazy;
     Node program = block(s);
     expect(s, loc, Lexer.Token.Type.EndOfFile);
+    if (Metrics.ENABLED) {
+      Metrics.parsed(start);
+    }
     return program;
   }
 
@@ -59,6 +77,8 @@ public class Parser {
    */
   public static Node block(State s) {
     List<Node> exprs = new ArrayList<>();
+    int enclosingDeclarations = s.declarations;
+    s.declarations = 0;
     while (!END_BLOCK.contains(s.cur().type)) {
       Node expr = expr(s);
       exprs.add(expr);
@@ -66,7 +86,9 @@ public class Parser {
         s.adv();
       }
     }
-    return new BlockNode(exprs);
+    boolean scoped = s.declarations > 0;
+    s.declarations = enclosingDeclarations;
+    return new BlockNode(exprs, scoped);
   }
 
   /**
@@ -169,9 +191,10 @@ public class Parser {
     Node leftExpr = left.apply(s);
     while (operators.contains(s.cur().type)) {
       Lexer.Token.Type op = s.cur().type;
+      Position pos = s.cur().pos;
       s.adv();
       Node rightExpr = right.apply(s);
-      leftExpr = new MathNode(leftExpr, rightExpr, op);
+      leftExpr = new MathNode(leftExpr, rightExpr, op, pos);
     }
     return leftExpr;
   }
@@ -183,10 +206,13 @@ public class Parser {
    * | <LParen> (Expr) <RParen>
    * | <Integer>
    * | <String>
+   * | (Interpolation)
    * | (IfStatement)
    * | (VariableDeclaration)
-   * | <Identifier> [<LParen> (Expr) [<Comma> (Expr)]+]?
+   * | <Identifier> [<LParen> (Expr) [<Comma> (Expr)]+]? (Index)
    * | (ForLoop)
+   * | (ParallelForLoop)
+   * | <Yield> (Expr)
    * @param s The current state of the parser.
    * @return A Node that represents the "atom," or basic value, that starts at the parser's current state.
    */
@@ -208,6 +234,8 @@ public class Parser {
       Node n = new StringNode(s.cur().contents);
       s.adv();
       return n;
+    } else if (s.cur().type == Lexer.Token.Type.InterpolationStart) {
+      return interpolation(s);
     } else if (s.cur().type == Lexer.Token.Type.If) {
       return ifStatement(s);
     } else if (s.cur().type == Lexer.Token.Type.Var) {
@@ -227,19 +255,74 @@ public class Parser {
         }
         expect(s, loc, Lexer.Token.Type.RParen);
         s.adv();
-        return new FunctionCallNode(id, args);
+        return index(s, new FunctionCallNode(id, args));
       } else {
-        return new VariableAccessNode(id);
+        return index(s, new VariableAccessNode(id));
       }
     } else if (s.cur().type == Lexer.Token.Type.For) {
       return forLoop(s);
+    } else if (s.cur().type == Lexer.Token.Type.Parallel) {
+      return parallelForLoop(s);
+    } else if (s.cur().type == Lexer.Token.Type.Yield) {
+      Position pos = s.cur().pos;
+      s.adv();
+      s.yields++;
+      return new YieldNode(expr(s), pos);
+    }
+    throw new IllegalStateException("Parser::atom - Expected, <Fun>, <Integer>, <String>, <InterpolationStart>, <If>, <Var>, <Yield>, or <Identifier>, got <" + s.cur().type + "> at " + s.cur().pos);
+  }
+
+  /**
+   * Precondition: s.cur().type == Lexer.Token.Type.InterpolationStart
+   * Layout: <InterpolationStart> (Expr) [<InterpolationMiddle> (Expr)]* <InterpolationEnd>
+   * @param s The current state of the Parser.
+   * @return The InterpolationNode of the string literal, with its text and expressions in order, leaving out empty
+   *         runs of text.
+   */
+  public static Node interpolation(State s) {
+    final String loc = "Parser::interpolation";
+
+    expect(s, loc, Lexer.Token.Type.InterpolationStart);
+    List<Node> parts = new ArrayList<>();
+    while (true) {
+      if (!s.cur().contents.isEmpty()) {
+        parts.add(new StringNode(s.cur().contents));
+      }
+      if (s.cur().type == Lexer.Token.Type.InterpolationEnd) {
+        s.adv();
+        return new InterpolationNode(parts);
+      }
+      s.adv();
+      parts.add(expr(s));
+      if (s.cur().type != Lexer.Token.Type.InterpolationMiddle) {
+        expect(s, loc, Lexer.Token.Type.InterpolationEnd);
+      }
     }
-    throw new IllegalStateException("Parser::atom - Expected, <Fun>, <Integer>, <String>, <If>, <Var>, or <Identifier>, got <" + s.cur().type + "> at " + s.cur().pos);
+  }
+
+  /**
+   * Layout: [<LBracket> (Expr) <RBracket>]*
+   * @param s The current state of the Parser.
+   * @param target The Node being indexed into.
+   * @return target, wrapped in one IndexNode per pair of brackets that follows it.
+   */
+  public static Node index(State s, Node target) {
+    final String loc = "Parser::index";
+
+    while (s.cur().type == Lexer.Token.Type.LBracket) {
+      s.adv();
+      Node index = expr(s);
+      expect(s, loc, Lexer.Token.Type.RBracket);
+      s.adv();
+      target = new IndexNode(target, index);
+    }
+    return target;
   }
 
   /**
    * Precondition: state.cur().type == Lexer.Token.Type.For
    * Layout: <For> (Block) <Do> <Newline>? (Block) <End>
+   *       | (ForInLoop)
    * @param s The current state of the Parser.
    * @return The Node object representing the for loop.
    */
@@ -247,6 +330,9 @@ public class Parser {
     final String loc = "Parser::forLoop";
 
     expect(s, loc, Lexer.Token.Type.For);
+    if (s.relative(1).type == Lexer.Token.Type.Identifier && s.relative(2).type == Lexer.Token.Type.In) {
+      return forInLoop(s);
+    }
     s.adv();
     Node condition = block(s);
     expect(s, loc, Lexer.Token.Type.Do);
@@ -259,9 +345,81 @@ public class Parser {
     return new ForNode(condition, body);
   }
 
+  /**
+   * Precondition: state.cur().type == Lexer.Token.Type.For
+   * Layout: <For> <Identifier> <In> (Expr) [<DotDot> (Expr)]? <Do> <Newline>? (Block) <End>
+   * With one expression, it is a generator, whose values are taken one at a time, each as the loop variable of an
+   * iteration. With two, the loop variable counts up from the first to just below the second.
+   * @param s The current state of the Parser.
+   * @return The Node object representing the for in loop, or the counted loop.
+   */
+  public static Node forInLoop(State s) {
+    final String loc = "Parser::forInLoop";
+
+    expect(s, loc, Lexer.Token.Type.For);
+    s.adv();
+    expect(s, loc, Lexer.Token.Type.Identifier);
+    String id = s.cur().contents;
+    s.adv();
+    expect(s, loc, Lexer.Token.Type.In);
+    s.adv();
+    Node iterable = expr(s);
+    Node to = null;
+    if (s.cur().type == Lexer.Token.Type.DotDot) {
+      s.adv();
+      to = expr(s);
+    }
+    expect(s, loc, Lexer.Token.Type.Do);
+    s.adv();
+    if (s.cur().type == Lexer.Token.Type.Newline)
+      s.adv();
+    Node body = block(s);
+    expect(s, loc, Lexer.Token.Type.End);
+    s.adv();
+
+    return to == null ? new ForInNode(id, iterable, body) : new RangeForNode(id, iterable, to, body);
+  }
+
+  /**
+   * Precondition: state.cur().type == Lexer.Token.Type.Parallel
+   * Layout: <Parallel> <Identifier>? <Identifier> <In> (Expr) <DotDot> (Expr) <Do> <Newline>? (Block) <End>
+   * The optional first identifier names the reduction (sum, min or max) applied to the value of each iteration's body.
+   * @param s The current state of the Parser.
+   * @return The Node object representing the parallel for loop.
+   */
+  public static Node parallelForLoop(State s) {
+    final String loc = "Parser::parallelForLoop";
+
+    expect(s, loc, Lexer.Token.Type.Parallel);
+    s.adv();
+    ParallelForNode.Reduction reduction = null;
+    if (s.cur().type == Lexer.Token.Type.Identifier && s.relative(1).type == Lexer.Token.Type.Identifier) {
+      reduction = ParallelForNode.Reduction.fromString(s.cur().contents);
+      s.adv();
+    }
+    expect(s, loc, Lexer.Token.Type.Identifier);
+    String id = s.cur().contents;
+    s.adv();
+    expect(s, loc, Lexer.Token.Type.In);
+    s.adv();
+    Node from = expr(s);
+    expect(s, loc, Lexer.Token.Type.DotDot);
+    s.adv();
+    Node to = expr(s);
+    expect(s, loc, Lexer.Token.Type.Do);
+    s.adv();
+    if (s.cur().type == Lexer.Token.Type.Newline)
+      s.adv();
+    Node body = block(s);
+    expect(s, loc, Lexer.Token.Type.End);
+    s.adv();
+
+    return new ParallelForNode(id, from, to, body, reduction);
+  }
+
   /**
    * Precondition: state.cur().type == Lexer.Token.Type.Var
-   * Layout: <Var> <Identifier> <Colon> <Identifier> <Assign> (Expr)
+   * Layout: <Var> <Identifier> <Colon> (TypeName) <Assign> (Expr)
    * @param s The parser's current state.
    * @return The Node representing a variable declaration that starts at the parser's current state.
    */
@@ -270,18 +428,25 @@ public class Parser {
 
     expect(s, loc, Lexer.Token.Type.Var);
     s.adv();
+    s.declarations++;
     expect(s, loc, Lexer.Token.Type.Identifier);
     String id = s.cur().contents;
     s.adv();
     expect(s, loc, Lexer.Token.Type.Colon);
     s.adv();
-    expect(s, loc, Lexer.Token.Type.Identifier);
-    String type = s.cur().contents;
-    s.adv();
+    String type = typeName(s, loc);
     expect(s, loc, Lexer.Token.Type.Assign);
     s.adv();
     Node value = expr(s);
-    return new VariableDeclarationNode(id, type, value);
+    VariableDeclarationNode node = new VariableDeclarationNode(id, type, value);
+    if (s.unchecked) {
+      try {
+        node.checkedType = Interpreter.Value.Type.fromString(type);
+      } catch (IllegalArgumentException e) {
+        error(loc, "Unknown type " + type + " at " + s.relative(-1).pos);
+      }
+    }
+    return node;
   }
 
   /**
@@ -318,6 +483,7 @@ public class Parser {
    */
   public static Node ifStatement(State s) {
     final String loc = "Parser::ifStatement";
+    Position pos = s.cur().pos;
     List<Pair<Node, Node>> branches = new ArrayList<>();
     Node otherwise = null;
     branches.add(ifBranch(s));
@@ -333,12 +499,12 @@ public class Parser {
     }
     expect(s, loc, Lexer.Token.Type.End);
     s.adv();
-    return new IfNode(branches, otherwise);
+    return new IfNode(branches, otherwise, pos);
   }
 
   /**
    * Precondition: s.cur().type == Lexer.Token.Type.Identifier
-   * Layout: <Identifier> <Colon> <Identifier>
+   * Layout: <Identifier> <Colon> (TypeName)
    *
    * @return A pair with field a being the name of the argument and field b being the type of the argument.
    */
@@ -350,17 +516,31 @@ public class Parser {
     s.adv();
     expect(s, loc, Lexer.Token.Type.Colon);
     s.adv();
-    expect(s, loc, Lexer.Token.Type.Identifier);
-    String argType = s.cur().contents;
-    s.adv();
+    String argType = typeName(s, loc);
     return new Pair<>(argId, argType);
   }
 
+  /**
+   * Layout: <Identifier> | <Fun>
+   * @param s        The parser's current state.
+   * @param location The function parsing the type, for errors.
+   * @return The name of the type at the parser's current state. fun is a keyword, but it is also the type of functions.
+   */
+  private static String typeName(State s, String location) {
+    if (s.cur().type != Lexer.Token.Type.Fun) {
+      expect(s, location, Lexer.Token.Type.Identifier);
+    }
+    String type = s.cur().contents;
+    s.adv();
+    return type;
+  }
+
   /**
    * Precondition: s.cur().type == Lexer.Token.Type.Fun
    * Layout: <Fun> <Identifier> <LParen> [<Identifier> <Colon> <Identifier> <Comma>]+ <RParen> <Newline>?
    *           (Block)
    *         <End>
+   * A function whose body yields is a generator function.
    *
    * @return The FunctionDeclarationNode
    */
@@ -369,6 +549,7 @@ public class Parser {
 
     expect(s, loc, Lexer.Token.Type.Fun);
     s.adv();
+    s.declarations++;
     expect(s, loc, Lexer.Token.Type.Identifier);
     String id = s.cur().contents;
     s.adv();
@@ -387,11 +568,74 @@ public class Parser {
     s.adv();
 
     if (s.cur().type == Lexer.Token.Type.Newline) s.adv();
+    if (s.lazy) {
+      int start = s.index;
+      boolean declaresFunctions = skipBody(s);
+      FunctionDeclarationNode node = new FunctionDeclarationNode(id, args, s.toks.subList(start, s.index));
+      expect(s, loc, Lexer.Token.Type.End);
+      s.adv();
+      node.retained = declaresFunctions;
+      return node;
+    }
+    int enclosingYields = s.yields;
+    s.yields = 0;
+    Position bodyStart = s.cur().pos;
     Node block = block(s);
+    boolean generator = s.yields > 0;
+    s.yields = enclosingYields;
 
     expect(s, loc, Lexer.Token.Type.End);
+    FunctionDeclarationNode node = new FunctionDeclarationNode(id, args, block);
+    node.generator = generator;
+    if (generator) {
+      node.bodyStart = bodyStart;
+      node.bodyEnd = s.cur().pos;
+    }
     s.adv();
-    return new FunctionDeclarationNode(id, args, block);
+    return node;
+  }
+
+  /**
+   * Moves past a function body without parsing it, up to the <End> that closes it. Every <Fun>, <If>, <For> and
+   * <Parallel> in the body opens a block closed by an <End> of its own, except the <If> of an <Else> <If>, which
+   * shares the <End> of the first branch.
+   * Precondition: s.cur() is the first token of the body.
+   * @return Whether the body declares a function, which is what makes a call's Symbol Table outlive the call.
+   */
+  private static boolean skipBody(State s) {
+    int depth = 0;
+    boolean declaresFunctions = false;
+    while (true) {
+      switch (s.cur().type) {
+        case EndOfFile:
+          return declaresFunctions;
+        case End:
+          if (depth == 0) {
+            return declaresFunctions;
+          }
+          depth--;
+          break;
+        case Fun:
+          // fun is also the name of a type, as in "f: fun"
+          if (s.relative(-1).type != Lexer.Token.Type.Colon) {
+            declaresFunctions = true;
+            depth++;
+          }
+          break;
+        case If:
+          if (s.relative(-1).type != Lexer.Token.Type.Else) {
+            depth++;
+          }
+          break;
+        case For:
+        case Parallel:
+          depth++;
+          break;
+        default:
+          break;
+      }
+      s.adv();
+    }
   }
 
   public static class Node {
@@ -412,27 +656,55 @@ public class Parser {
       Negation,
       Block,
       If,
-      For
+      For,
+      Index,
+      ParallelFor,
+      ForIn,
+      RangeFor,
+      Yield,
+      Interpolation
     }
   }
 
   public static class IfNode extends Node {
     public List<Pair<Node, Node>> conditions;
     public Node otherwise;
-
-    public IfNode(List<Pair<Node, Node>> conditions, Node otherwise) {
+    public final Position pos;
+    /**
+     * When profiling, how many times each branch was taken; the last count is for the else branch, or for no branch
+     * being taken if there is none.
+     */
+    public final long[] taken;
+
+    public IfNode(List<Pair<Node, Node>> conditions, Node otherwise, Position pos) {
       super(Type.If);
       this.conditions = conditions;
       this.otherwise = otherwise;
+      this.pos = pos;
+      this.taken = new long[conditions.size() + 1];
     }
   }
 
   public static class BlockNode extends Node {
     public List<Node> exprs;
-
-    public BlockNode(List<Node> exprs) {
+    /**
+     * Whether the block declares a variable or function of its own, and so needs a Symbol Table of its own to keep
+     * them out of the enclosing scope. Blocks that declare nothing are run straight in the enclosing Symbol Table.
+     */
+    public final boolean scoped;
+    /**
+     * Whether a function declared in the block can outlive it, so that the block's Symbol Table cannot be reused.
+     */
+    public boolean retained;
+
+    public BlockNode(List<Node> exprs, boolean scoped) {
       super(Type.Block);
       this.exprs = exprs;
+      this.scoped = scoped;
+    }
+
+    public BlockNode(List<Node> exprs) {
+      this(exprs, true);
     }
   }
 
@@ -447,10 +719,27 @@ public class Parser {
 
   public static class StringNode extends Node {
     public final String value;
+    /**
+     * The value of the literal, built once here and shared by every evaluation of it.
+     */
+    public final Interpreter.StringValue constant;
 
     public StringNode(String value) {
       super(Type.String);
       this.value = value;
+      this.constant = Interpreter.StringValue.constant(value);
+    }
+  }
+
+  public static class InterpolationNode extends Node {
+    /**
+     * The runs of text, as StringNodes, and the expressions between them, in order.
+     */
+    public final List<Node> parts;
+
+    public InterpolationNode(List<Node> parts) {
+      super(Type.Interpolation);
+      this.parts = parts;
     }
   }
 
@@ -458,6 +747,10 @@ public class Parser {
     public final String id;
     public final String type;
     public final Node value;
+    /**
+     * The declared type, if the TypeChecker could not tell whether value has it, so it is checked when it runs.
+     */
+    public Interpreter.Value.Type checkedType;
 
     public VariableDeclarationNode(String id, String type, Node value) {
       super(Type.VariableDeclaration);
@@ -469,6 +762,11 @@ public class Parser {
 
   public static class VariableAccessNode extends Node {
     public final String id;
+    /**
+     * Where the variable is declared, as found by the Resolver: a number of Symbol Tables up from the one the access
+     * runs in, Resolver.GLOBAL, or Resolver.UNRESOLVED.
+     */
+    public int depth = Resolver.UNRESOLVED;
 
     public VariableAccessNode(String id) {
       super(Type.VariableAccess);
@@ -479,7 +777,32 @@ public class Parser {
   public static class FunctionDeclarationNode extends Node {
     public final String id;
     public final List<Pair<String, String>> args;
-    public final Node body;
+    private volatile Node body;
+    /**
+     * The tokens of the body, until it is parsed.
+     */
+    private List<Lexer.Token> tokens;
+    /**
+     * The names declared by each scope around the declaration, outermost first, as found by the Resolver, for
+     * resolving the body once it is parsed; null if the declaration has not been resolved, or if its body was parsed
+     * up front and it is not a generator.
+     */
+    public List<Set<String>> enclosing;
+    /**
+     * Whether a function declared in the body can outlive a call, so that the call's Symbol Table cannot be reused.
+     */
+    public boolean retained;
+    /**
+     * Whether the body yields, so that a call returns a generator of the values it yields instead of running it. Only
+     * known once the body has been parsed.
+     */
+    public boolean generator;
+    /**
+     * Where the body of a generator function starts in its source, and where the <End> that closes it is, so that
+     * the Compiler can carry its text; null for any other function.
+     */
+    public Position bodyStart;
+    public Position bodyEnd;
 
     public FunctionDeclarationNode(String id, List<Pair<String, String>> args, Node body) {
       super(Type.FunctionDeclaration);
@@ -487,11 +810,91 @@ public class Parser {
       this.args = args;
       this.body = body;
     }
+
+    /**
+     * A declaration whose body has only been scanned, and is parsed the first time it is needed.
+     * @param tokens The tokens of the body, without the <End> that closes it.
+     */
+    public FunctionDeclarationNode(String id, List<Pair<String, String>> args, List<Lexer.Token> tokens) {
+      super(Type.FunctionDeclaration);
+      this.id = id;
+      this.args = args;
+      this.tokens = tokens;
+    }
+
+    /**
+     * A declaration that has been parsed and resolved before, whose body is lexed again from its text and parsed the
+     * first time it is needed. A compiled program declares its generator functions this way, since GeneratorValue
+     * runs a generator by walking the tree of its body.
+     * @param text      The text of the body.
+     * @param start     Where text starts in the source it was taken from, with an index of 0 into text.
+     * @param enclosing The names declared by each scope around the declaration, as the Resolver found them.
+     * @param retained  Whether a function declared in the body can outlive a call, as the Resolver found it.
+     * @throws IllegalStateException if text contains something that is not a token.
+     */
+    public static FunctionDeclarationNode fromText(String id, List<Pair<String, String>> args, String text, Position start, List<Set<String>> enclosing, boolean retained) {
+      FunctionDeclarationNode node = new FunctionDeclarationNode(id, args, Lexer.lex(new Lexer.State(text.toCharArray(), text.length(), start)));
+      node.enclosing = enclosing;
+      node.retained = retained;
+      return node;
+    }
+
+    /**
+     * @return Whether the body has been parsed yet.
+     */
+    public boolean parsed() {
+      return body != null;
+    }
+
+    /**
+     * Parses the body the first time it is asked for, if it has only been scanned so far, then resolves it against
+     * the enclosing scopes if the declaration has been resolved. The TypeChecker never sees a body parsed this way, so
+     * every variable it declares is checked when it runs, and every call in it is resolved when it runs. The
+     * functions declared in the body are parsed lazily in turn. Safe to call from any thread.
+     * @return The body of the function.
+     * @throws IllegalStateException if the body is malformed.
+     */
+    public Node body() {
+      Node parsed = body;
+      if (parsed != null) {
+        return parsed;
+      }
+      synchronized (this) {
+        if (body == null) {
+          final String loc = "Parser::FunctionDeclarationNode::body";
+          long start = Metrics.ENABLED ? System.nanoTime() : 0;
+
+          State s = new State(tokens);
+          s.lazy = true;
+          s.unchecked = true;
+          Node block = block(s);
+          expect(s, loc, Lexer.Token.Type.EndOfFile);
+          generator = s.yields > 0;
+          if (enclosing != null) {
+            Resolver.resolveBody(this, block, enclosing);
+          }
+          if (Metrics.ENABLED) {
+            Metrics.parsed(start);
+          }
+          body = block;
+          tokens = null;
+        }
+        return body;
+      }
+    }
   }
 
   public static class FunctionCallNode extends Node {
     public final String toCall;
     public final List<Node> args;
+    /**
+     * Where the nearest function named toCall is declared; see VariableAccessNode.depth.
+     */
+    public int depth = Resolver.UNRESOLVED;
+    /**
+     * The mangled name of the overload the TypeChecker bound this call to, or null if it is resolved when it runs.
+     */
+    public String bound;
 
     public FunctionCallNode(String toCall, List<Node> args) {
       super(Type.FunctionCall);
@@ -504,12 +907,22 @@ public class Parser {
     public final Node left;
     public final Node right;
     public final Lexer.Token.Type operation;
-
-    public MathNode(Node left, Node right, Lexer.Token.Type operation) {
+    /**
+     * The position of the operator.
+     */
+    public final Position pos;
+    /**
+     * When profiling a && or ||, how many times the right side was evaluated, and how many times it was skipped.
+     */
+    public long rightEvaluated;
+    public long rightSkipped;
+
+    public MathNode(Node left, Node right, Lexer.Token.Type operation, Position pos) {
       super(Type.Maths);
       this.left = left;
       this.right = right;
       this.operation = operation;
+      this.pos = pos;
     }
   }
 
@@ -524,6 +937,17 @@ public class Parser {
     }
   }
 
+  public static class IndexNode extends Node {
+    public final Node target;
+    public final Node index;
+
+    public IndexNode(Node target, Node index) {
+      super(Type.Index);
+      this.target = target;
+      this.index = index;
+    }
+  }
+
   public static class ForNode extends Node {
 
     public final Node condition;
@@ -536,9 +960,118 @@ public class Parser {
     }
   }
 
+  public static class ForInNode extends Node {
+    public final String id;
+    public final Node iterable;
+    public final Node body;
+    /**
+     * Whether a function declared in the body can outlive an iteration, so that its Symbol Table cannot be reused.
+     */
+    public boolean retained;
+
+    public ForInNode(String id, Node iterable, Node body) {
+      super(Type.ForIn);
+      this.id = id;
+      this.iterable = iterable;
+      this.body = body;
+    }
+  }
+
+  public static class RangeForNode extends Node {
+    public final String id;
+    public final Node from;
+    public final Node to;
+    public final Node body;
+    /**
+     * Whether a function declared in the body can outlive an iteration, so that each iteration needs a Symbol Table of
+     * its own.
+     */
+    public boolean retained;
+    /**
+     * Whether the body reads the loop variable, so that the counter has to be put in a value each iteration. Only the
+     * Resolver can tell that it does not.
+     */
+    public boolean counterRead = true;
+
+    public RangeForNode(String id, Node from, Node to, Node body) {
+      super(Type.RangeFor);
+      this.id = id;
+      this.from = from;
+      this.to = to;
+      this.body = body;
+    }
+  }
+
+  public static class YieldNode extends Node {
+    public final Node value;
+    public final Position pos;
+
+    public YieldNode(Node value, Position pos) {
+      super(Type.Yield);
+      this.value = value;
+      this.pos = pos;
+    }
+  }
+
+  public static class ParallelForNode extends Node {
+    public final String id;
+    public final Node from;
+    public final Node to;
+    public final Node body;
+    public final Reduction reduction;
+    /**
+     * Whether a function declared in the body can outlive an iteration, so that its Symbol Table cannot be reused.
+     */
+    public boolean retained;
+
+    /**
+     * @param reduction How the values of the iterations' bodies are combined, or null if they are discarded. The sum of
+     *                  an empty range is 0; its min or max is an error when the loop runs.
+     */
+    public ParallelForNode(String id, Node from, Node to, Node body, Reduction reduction) {
+      super(Type.ParallelFor);
+      this.id = id;
+      this.from = from;
+      this.to = to;
+      this.body = body;
+      this.reduction = reduction;
+    }
+
+    public enum Reduction {
+      Sum, Min, Max;
+
+      public static Reduction fromString(String s) {
+        if ("sum".equals(s)) {
+          return Sum;
+        } else if ("min".equals(s)) {
+          return Min;
+        } else if ("max".equals(s)) {
+          return Max;
+        }
+        throw new IllegalStateException("ParallelForNode::Reduction::fromString - Expected \"sum\", \"min\", or \"max\", got " + s);
+      }
+    }
+  }
+
   public static class State {
     public final List<Lexer.Token> toks;
     public int index;
+    /**
+     * The number of variables and functions declared so far directly in the block being parsed.
+     */
+    public int declarations;
+    /**
+     * Whether function bodies are only scanned, to be parsed the first time they are called.
+     */
+    public boolean lazy;
+    /**
+     * Whether what is parsed will not be seen by the TypeChecker, so every variable declaration is checked when it runs.
+     */
+    public boolean unchecked;
+    /**
+     * The number of yields parsed so far in the body of the function being parsed.
+     */
+    public int yields;
 
     public State(List<Lexer.Token> toks) {
       this.toks = toks;
@@ -552,6 +1085,14 @@ public class Parser {
       return toks.get(index);
     }
 
+    public Lexer.Token relative(int rel) {
+      int i = index + rel;
+      if (i >= toks.size() || i < 0) {
+        return Lexer.Token.EOF;
+      }
+      return toks.get(i);
+    }
+
     public void adv() {
       if (index >= toks.size()) return;
       index++;
@@ -0,0 +1,118 @@
+/**
+ * Generates well-formed programs of a given size and shape, for finding the inputs that a phase of the interpreter
+ * handles in worse than linear time. Every program runs to completion without printing anything, and its text grows
+ * linearly (up to a log factor for Overloads) with its size.
+ */
+public class ProgramGenerator {
+  public enum Shape {
+    /**
+     * size top-level statements, declaring and updating variables and calling a few functions.
+     */
+    Flat,
+    /**
+     * One expression nested size parentheses deep.
+     */
+    NestedExpressions,
+    /**
+     * size if statements nested inside each other, each declaring a variable of its own.
+     */
+    NestedBlocks,
+    /**
+     * size overloads of one function, told apart by the types of their arguments, each called once.
+     */
+    Overloads,
+    /**
+     * One string literal of size thousand characters, with an escape every so often.
+     */
+    LongLiterals
+  }
+
+  /**
+   * @param shape The shape of the program.
+   * @param size  The size of the program; what it counts depends on shape.
+   * @return The text of the program.
+   */
+  public static String generate(Shape shape, int size) {
+    return switch (shape) {
+      case Flat -> flat(size);
+      case NestedExpressions -> nestedExpressions(size);
+      case NestedBlocks -> nestedBlocks(size);
+      case Overloads -> overloads(size);
+      case LongLiterals -> longLiterals(size);
+    };
+  }
+
+  private static String flat(int size) {
+    StringBuilder sb = new StringBuilder();
+    sb.append("fun step(value: int)\n  value * 3 % 1000 + 1\nend\n");
+    sb.append("fun label(value: int)\n  \"value \" + string(value)\nend\n");
+    for (int i = 0; i < size; i++) {
+      switch (i % 4) {
+        case 0 -> sb.append("var v").append(i).append(": int <- ").append(i).append(" * 2 + 1\n");
+        case 1 -> sb.append("v").append(i - 1).append(" <- step(v").append(i - 1).append(")\n");
+        case 2 -> sb.append("var s").append(i).append(": string <- label(v").append(i - 2).append(")\n");
+        default -> sb.append("if v").append(i - 3).append(" > 500 && length(s").append(i - 1).append(") > 3 then v")
+            .append(i - 3).append(" <- 0 end\n");
+      }
+    }
+    return sb.toString();
+  }
+
+  private static String nestedExpressions(int size) {
+    StringBuilder sb = new StringBuilder("var total: int <- ");
+    sb.append("(".repeat(size));
+    sb.append('1');
+    for (int i = 0; i < size; i++) {
+      sb.append(i % 2 == 0 ? " + 1)" : " * 1)");
+    }
+    sb.append('\n');
+    return sb.toString();
+  }
+
+  private static String nestedBlocks(int size) {
+    StringBuilder sb = new StringBuilder("var depth: int <- 0\n");
+    for (int i = 0; i < size; i++) {
+      sb.append("if depth == ").append(i).append(" then\n");
+      sb.append("var d").append(i).append(": int <- depth\n");
+      sb.append("depth <- d").append(i).append(" + 1\n");
+    }
+    for (int i = 0; i < size; i++) {
+      sb.append("end\n");
+    }
+    return sb.toString();
+  }
+
+  private static String overloads(int size) {
+    int args = 1;
+    while (1 << args < size) {
+      args++;
+    }
+    StringBuilder declarations = new StringBuilder();
+    StringBuilder calls = new StringBuilder("var total: int <- 0\n");
+    for (int i = 0; i < size; i++) {
+      declarations.append("fun pick(");
+      calls.append("total <- total + pick(");
+      for (int arg = 0; arg < args; arg++) {
+        boolean string = (i >> arg & 1) == 1;
+        declarations.append(arg == 0 ? "" : ", ").append('a').append(arg).append(string ? ": string" : ": int");
+        calls.append(arg == 0 ? "" : ", ").append(string ? "\"x\"" : "1");
+      }
+      declarations.append(")\n  ").append(i).append("\nend\n");
+      calls.append(")\n");
+    }
+    return declarations.toString() + calls;
+  }
+
+  private static String longLiterals(int size) {
+    StringBuilder sb = new StringBuilder("var text: string <- \"");
+    int start = sb.length();
+    for (int i = 0; i < size; i++) {
+      sb.append("a fairly ordinary run of words, then a quote: \\\" and a newline \\n");
+      while (sb.length() < start + (i + 1) * 1000) {
+        sb.append(" and more words");
+      }
+    }
+    sb.append("\"\nvar size: int <- length(text)\n");
+    return sb.toString();
+  }
+}
@@ -0,0 +1,102 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * An interactive session. Every entry is lexed and parsed on its own, then run directly in one global Symbol Table
+ * that lives as long as the session, so the variables and functions an entry declares stay around for later entries
+ * without anything being lexed, parsed or declared again.
+ */
+public class Repl {
+  private static final String PROMPT = "> ";
+  private static final String CONTINUATION_PROMPT = "| ";
+
+  /**
+   * Reads entries from in until it runs out. An entry is read line by line until it lexes and parses; while it ends
+   * in the middle of something (a string, a fun ... end block, a half-written expression), the next line is read as
+   * part of it. An empty line ends an entry regardless, so that an error in it can be reported.
+   * @param global The Symbol Table that every entry is run in.
+   * @param in     Where to read entries from.
+   */
+  public static void run(Interpreter.SymbolTable global, BufferedReader in) {
+    StringBuilder entry = new StringBuilder();
+    prompt(PROMPT);
+    try {
+      for (String line = in.readLine(); line != null; line = in.readLine()) {
+        entry.append(line).append('\n');
+        List<Parser.Node> exprs;
+        try {
+          exprs = parse(entry, line.isBlank());
+        } catch (IllegalStateException e) {
+          error(e);
+          entry.setLength(0);
+          prompt(PROMPT);
+          continue;
+        }
+        if (exprs == null) {
+          prompt(CONTINUATION_PROMPT);
+          continue;
+        }
+        entry.setLength(0);
+
+        try {
+          Interpreter.Value result = Interpreter.VoidValue.VOID;
+          for (Parser.Node expr : exprs) {
+            result = Interpreter.interpret(global, Resolver.resolve(expr));
+          }
+          if (result != Interpreter.VoidValue.VOID) {
+            Interpreter.OUT.println(result.toString());
+          }
+        } catch (RuntimeException e) {
+          error(e);
+        }
+        prompt(PROMPT);
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    } finally {
+      Interpreter.OUT.flush();
+    }
+  }
+
+  /**
+   * @param entry The text of the entry so far.
+   * @param force Whether to report an error rather than wait for more lines if the entry is incomplete.
+   * @return The top-level expressions of the entry, or null if it is incomplete.
+   * @throws IllegalStateException if the entry is malformed (or incomplete, and force is set).
+   */
+  private static List<Parser.Node> parse(StringBuilder entry, boolean force) {
+    char[] text = entry.toString().toCharArray();
+    Lexer.State lexerState = new Lexer.State(text, text.length, new Position(0, 1, 1, "<repl>"));
+    List<Lexer.Token> tokens;
+    try {
+      tokens = Lexer.lex(lexerState);
+    } catch (IllegalStateException e) {
+      // an error at the very end of the text means a string or comment is still open
+      if (!force && lexerState.pos.index >= lexerState.length) return null;
+      throw e;
+    }
+
+    Parser.State parserState = new Parser.State(tokens);
+    try {
+      Parser.Node program = Parser.block(parserState);
+      Parser.expect(parserState, "Repl::parse", Lexer.Token.Type.EndOfFile);
+      return ((Parser.BlockNode) program).exprs;
+    } catch (IllegalStateException e) {
+      // likewise, running out of tokens means a block or expression is still open
+      if (!force && parserState.cur().type == Lexer.Token.Type.EndOfFile) return null;
+      throw e;
+    }
+  }
+
+  private static void prompt(String prompt) {
+    Interpreter.OUT.print(prompt);
+    Interpreter.OUT.flush();
+  }
+
+  private static void error(RuntimeException e) {
+    Interpreter.OUT.flush();
+    System.err.println("error: " + e.getMessage());
+    System.err.flush();
+  }
+}
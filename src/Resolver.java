@@ -0,0 +1,318 @@
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A pass over the Abstract Syntax Tree (AST) that works out, before anything runs, which Symbol Table each variable
+ * access and function call will find its name in, and which Symbol Tables must outlive the code that made them.
+ * <p>
+ * The scopes it tracks mirror the Symbol Tables the Interpreter makes: one per function call (holding the arguments
+ * and everything the body declares), one per scoped block, one per iteration of a parallel for or for in loop, and one
+ * per counted loop. A name is resolved to the innermost enclosing scope that declares it anywhere, giving the number
+ * of Symbol Tables to walk up at runtime, or to GLOBAL if no enclosing scope declares it. Functions capture the scope
+ * they are declared in, so that scope and every scope around it is marked as retained, and its Symbol Table is never
+ * handed back to the pool.
+ * <p>
+ * It also works out whether the body of each counted loop reads its loop variable, and checks that every yield is a
+ * statement of a function body, as those are the only places a generator can be suspended at.
+ */
+public class Resolver {
+  /**
+   * The depth of a name that has not been resolved; it is looked up by walking every Symbol Table.
+   */
+  public static final int UNRESOLVED = -1;
+  /**
+   * The depth of a name that no enclosing scope declares; it is looked up in the outermost Symbol Table.
+   */
+  public static final int GLOBAL = -2;
+
+  private final List<Scope> scopes = new ArrayList<>();
+  /**
+   * Whether the node being visited is a statement of a function body, directly or through the blocks, if statements
+   * and loops around it, which is where a generator can be suspended.
+   */
+  private boolean statement;
+
+  /**
+   * Resolves node, a top-level expression, or a whole program.
+   * Precondition: node will run in the outermost Symbol Table.
+   * @param node The node to resolve; the nodes under it are updated in place.
+   * @return node
+   */
+  public static Parser.Node resolve(Parser.Node node) {
+    new Resolver().visit(node);
+    return node;
+  }
+
+  private void visit(Parser.Node node) {
+    boolean statement = this.statement;
+    this.statement = false;
+    switch (node.type) {
+      case Block -> {
+        Parser.BlockNode blockNode = (Parser.BlockNode) node;
+        if (!blockNode.scoped) {
+          visitStatements(blockNode.exprs, statement);
+          return;
+        }
+        Scope scope = enter(new HashSet<>(), blockNode.exprs);
+        visitStatements(blockNode.exprs, statement);
+        exit();
+        blockNode.retained = scope.retained;
+      }
+      case FunctionDeclaration -> {
+        Parser.FunctionDeclarationNode functionDeclarationNode = (Parser.FunctionDeclarationNode) node;
+        // the function captures the current scope, and with it every scope around it
+        for (Scope scope : scopes) {
+          scope.retained = true;
+        }
+        if (!functionDeclarationNode.parsed() || functionDeclarationNode.generator) {
+          // the body is resolved once it is parsed, against the scopes around it now; the Parser has already worked
+          // out whether it is retained. A generator's body may be parsed again from its text, in a compiled program
+          List<Set<String>> enclosing = new ArrayList<>();
+          for (Scope scope : scopes) {
+            enclosing.add(scope.names);
+          }
+          functionDeclarationNode.enclosing = enclosing;
+          if (!functionDeclarationNode.parsed()) {
+            return;
+          }
+        }
+        functionDeclarationNode.retained = functionBody(functionDeclarationNode, functionDeclarationNode.body());
+      }
+      case ParallelFor -> {
+        Parser.ParallelForNode parallelForNode = (Parser.ParallelForNode) node;
+        visit(parallelForNode.from);
+        visit(parallelForNode.to);
+        List<Parser.Node> body = ((Parser.BlockNode) parallelForNode.body).exprs;
+        Scope scope = enter(new HashSet<>(Set.of(parallelForNode.id)), body);
+        visitAll(body);
+        exit();
+        parallelForNode.retained = scope.retained;
+      }
+      case VariableAccess -> {
+        Parser.VariableAccessNode variableAccessNode = (Parser.VariableAccessNode) node;
+        variableAccessNode.depth = depthOf(variableAccessNode.id);
+      }
+      case FunctionCall -> {
+        Parser.FunctionCallNode functionCallNode = (Parser.FunctionCallNode) node;
+        functionCallNode.depth = depthOf(functionCallNode.toCall);
+        visitAll(functionCallNode.args);
+      }
+      case VariableDeclaration -> visit(((Parser.VariableDeclarationNode) node).value);
+      case Interpolation -> visitAll(((Parser.InterpolationNode) node).parts);
+      case Maths -> {
+        visit(((Parser.MathNode) node).left);
+        visit(((Parser.MathNode) node).right);
+      }
+      case Negation -> visit(((Parser.NegationNode) node).acting);
+      case Index -> {
+        visit(((Parser.IndexNode) node).target);
+        visit(((Parser.IndexNode) node).index);
+      }
+      case If -> {
+        Parser.IfNode ifNode = (Parser.IfNode) node;
+        for (Pair<Parser.Node, Parser.Node> branch : ifNode.conditions) {
+          visit(branch.a);
+          this.statement = statement;
+          visit(branch.b);
+        }
+        if (ifNode.otherwise != null) {
+          this.statement = statement;
+          visit(ifNode.otherwise);
+        }
+      }
+      case For -> {
+        visit(((Parser.ForNode) node).condition);
+        this.statement = statement;
+        visit(((Parser.ForNode) node).body);
+      }
+      case ForIn -> {
+        Parser.ForInNode forInNode = (Parser.ForInNode) node;
+        visit(forInNode.iterable);
+        List<Parser.Node> body = ((Parser.BlockNode) forInNode.body).exprs;
+        Scope scope = enter(new HashSet<>(Set.of(forInNode.id)), body);
+        visitStatements(body, statement);
+        exit();
+        forInNode.retained = scope.retained;
+      }
+      case RangeFor -> {
+        Parser.RangeForNode rangeForNode = (Parser.RangeForNode) node;
+        visit(rangeForNode.from);
+        visit(rangeForNode.to);
+        List<Parser.Node> body = ((Parser.BlockNode) rangeForNode.body).exprs;
+        Scope scope = enter(new HashSet<>(Set.of(rangeForNode.id)), body);
+        scope.counter = rangeForNode.id;
+        visitStatements(body, statement);
+        exit();
+        rangeForNode.retained = scope.retained;
+        rangeForNode.counterRead = scope.counterRead;
+      }
+      case Yield -> {
+        Parser.YieldNode yieldNode = (Parser.YieldNode) node;
+        if (!statement) {
+          throw new IllegalStateException("Resolver::resolve - Tried to yield somewhere other than a statement of a function body at " + yieldNode.pos);
+        }
+        visit(yieldNode.value);
+      }
+      default -> {
+      }
+    }
+  }
+
+  /**
+   * Resolves the body of a function that was parsed lazily, once it has been parsed.
+   * @param node      The declaration of the function.
+   * @param body      The body of the function; the nodes under it are updated in place.
+   * @param enclosing The names declared by each scope around the declaration, outermost first.
+   */
+  public static void resolveBody(Parser.FunctionDeclarationNode node, Parser.Node body, List<Set<String>> enclosing) {
+    Resolver resolver = new Resolver();
+    for (Set<String> names : enclosing) {
+      resolver.scopes.add(new Scope(names));
+    }
+    resolver.functionBody(node, body);
+  }
+
+  /**
+   * Resolves body in a scope of its own, declaring the arguments of node.
+   * @return Whether the scope is retained.
+   */
+  private boolean functionBody(Parser.FunctionDeclarationNode node, Parser.Node body) {
+    Set<String> names = new HashSet<>();
+    for (Pair<String, String> arg : node.args) {
+      names.add(arg.a);
+    }
+    List<Parser.Node> exprs = ((Parser.BlockNode) body).exprs;
+    Scope scope = enter(names, exprs);
+    visitStatements(exprs, true);
+    exit();
+    return scope.retained;
+  }
+
+  private void visitAll(List<Parser.Node> nodes) {
+    for (Parser.Node node : nodes) {
+      visit(node);
+    }
+  }
+
+  /**
+   * @param statement Whether nodes are statements of a function body; see Resolver.statement.
+   */
+  private void visitStatements(List<Parser.Node> nodes, boolean statement) {
+    for (Parser.Node node : nodes) {
+      this.statement = statement;
+      visit(node);
+    }
+  }
+
+  /**
+   * @return The number of Symbol Tables between the current one and the one declaring id, or GLOBAL.
+   */
+  private int depthOf(String id) {
+    for (int i = scopes.size() - 1; i >= 0; i--) {
+      Scope scope = scopes.get(i);
+      if (scope.names.contains(id)) {
+        if (id.equals(scope.counter)) {
+          scope.counterRead = true;
+        }
+        return scopes.size() - 1 - i;
+      }
+    }
+    return GLOBAL;
+  }
+
+  /**
+   * Enters a new scope declaring names, along with everything that exprs declare directly in it.
+   */
+  private Scope enter(Set<String> names, List<Parser.Node> exprs) {
+    for (Parser.Node declaration : declarations(exprs)) {
+      names.add(declaration.type == Parser.Node.Type.VariableDeclaration
+          ? ((Parser.VariableDeclarationNode) declaration).id
+          : ((Parser.FunctionDeclarationNode) declaration).id);
+    }
+    Scope scope = new Scope(names);
+    scopes.add(scope);
+    return scope;
+  }
+
+  private void exit() {
+    scopes.remove(scopes.size() - 1);
+  }
+
+  /**
+   * @param exprs The expressions of a scope.
+   * @return The VariableDeclarationNodes and FunctionDeclarationNodes that declare a name directly in that scope, in
+   *         the order they appear in, without those of nested scopes.
+   */
+  public static List<Parser.Node> declarations(List<Parser.Node> exprs) {
+    List<Parser.Node> declarations = new ArrayList<>();
+    for (Parser.Node expr : exprs) {
+      declarations(expr, declarations);
+    }
+    return declarations;
+  }
+
+  private static void declarations(Parser.Node node, List<Parser.Node> declarations) {
+    switch (node.type) {
+      case VariableDeclaration -> {
+        declarations(((Parser.VariableDeclarationNode) node).value, declarations);
+        declarations.add(node);
+      }
+      case FunctionDeclaration -> declarations.add(node);
+      case Block -> {
+        // a block either declares nothing or is a scope of its own
+      }
+      case ParallelFor -> {
+        declarations(((Parser.ParallelForNode) node).from, declarations);
+        declarations(((Parser.ParallelForNode) node).to, declarations);
+      }
+      case ForIn -> declarations(((Parser.ForInNode) node).iterable, declarations);
+      case Interpolation -> {
+        for (Parser.Node part : ((Parser.InterpolationNode) node).parts) {
+          declarations(part, declarations);
+        }
+      }
+      case RangeFor -> {
+        declarations(((Parser.RangeForNode) node).from, declarations);
+        declarations(((Parser.RangeForNode) node).to, declarations);
+      }
+      case Yield -> declarations(((Parser.YieldNode) node).value, declarations);
+      case FunctionCall -> {
+        for (Parser.Node arg : ((Parser.FunctionCallNode) node).args) {
+          declarations(arg, declarations);
+        }
+      }
+      case Maths -> {
+        declarations(((Parser.MathNode) node).left, declarations);
+        declarations(((Parser.MathNode) node).right, declarations);
+      }
+      case Negation -> declarations(((Parser.NegationNode) node).acting, declarations);
+      case Index -> {
+        declarations(((Parser.IndexNode) node).target, declarations);
+        declarations(((Parser.IndexNode) node).index, declarations);
+      }
+      case If -> {
+        for (Pair<Parser.Node, Parser.Node> branch : ((Parser.IfNode) node).conditions) {
+          declarations(branch.a, declarations);
+        }
+      }
+      default -> {
+      }
+    }
+  }
+
+  private static class Scope {
+    public final Set<String> names;
+    public boolean retained;
+    /**
+     * For the scope of a counted loop, the name of its loop variable, and whether anything in it reads it.
+     */
+    public String counter;
+    public boolean counterRead;
+
+    public Scope(Set<String> names) {
+      this.names = names;
+    }
+  }
+}
@@ -0,0 +1,178 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Times each phase of running a generated program (lexing, parsing, resolving and type checking, interpreting) at
+ * doubling sizes, and flags every phase whose time grows faster than the program does.
+ * <p>
+ * For every shape of ProgramGenerator, the program is generated at each size from the smallest up to the largest,
+ * doubling each time, and run through the phases a few times, keeping the best time of each phase. Times are the CPU
+ * time of the thread running the phases, so that the JIT compiler and the garbage collector working on other threads
+ * are not counted. A table is then printed with the time of each phase and, from the second size on, its growth
+ * exponent: log2 of how much longer the phase took than at half the size, so about 1 for linear growth and about 2 for
+ * quadratic growth. A phase is flagged when its growth over the last two doublings stays above the threshold while it
+ * takes long enough to be measured reliably, so that one slow measurement is not enough to flag it. A phase that
+ * fails, such as by overflowing the stack, is flagged too.
+ * <p>
+ * Everything runs in-process on generated text, so nothing but the JDK is needed.
+ * <p>
+ * Usage: java ScalingHarness [--max size] [--threshold exponent] [shape...]
+ * <br>
+ * Exits with status 1 if anything was flagged.
+ */
+public class ScalingHarness {
+  private static final String[] PHASES = {"lex", "parse", "check", "interpret"};
+  private static final int MIN_SIZE = 64;
+  private static final int REPETITIONS = 7;
+  /**
+   * Times below this, in nanoseconds, are too noisy for their growth to mean anything.
+   */
+  private static final long NOISE_FLOOR = 2_000_000;
+  private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+  public static void main(String[] args) {
+    int maxSize = 4096;
+    double threshold = 1.5;
+    List<ProgramGenerator.Shape> shapes = new ArrayList<>();
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("--max")) {
+        maxSize = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("--threshold")) {
+        threshold = Double.parseDouble(args[++i]);
+      } else {
+        shapes.add(ProgramGenerator.Shape.valueOf(args[i]));
+      }
+    }
+    if (shapes.isEmpty()) {
+      shapes.addAll(List.of(ProgramGenerator.Shape.values()));
+    }
+
+    // warm the JIT up on small programs of every shape, so that the first sizes are not timed in the interpreter
+    for (ProgramGenerator.Shape shape : shapes) {
+      for (int i = 0; i < 50; i++) {
+        time(shape, MIN_SIZE);
+      }
+    }
+
+    List<String> flagged = new ArrayList<>();
+    for (ProgramGenerator.Shape shape : shapes) {
+      System.out.println(shape);
+      StringBuilder header = new StringBuilder(String.format("%10s", "size"));
+      for (String phase : PHASES) {
+        header.append(String.format("%22s", phase));
+      }
+      System.out.println(header);
+
+      long[] previous = null;
+      long[] beforePrevious = null;
+      for (int size = MIN_SIZE; size <= maxSize; size *= 2) {
+        long[] times = best(shape, size);
+        StringBuilder row = new StringBuilder(String.format("%10d", size));
+        for (int phase = 0; phase < PHASES.length; phase++) {
+          if (times[phase] < 0) {
+            boolean first = phase == 0 || times[phase - 1] >= 0;
+            row.append(String.format("%22s", first ? "failed !" : "-"));
+            if (first) {
+              flagged.add(shape + " " + PHASES[phase] + " failed at size " + size);
+            }
+            continue;
+          }
+          String cell = String.format("%.2fms", times[phase] / 1e6);
+          if (previous != null && previous[phase] > 0) {
+            double exponent = exponent(times[phase], previous[phase], 1);
+            boolean superLinear = beforePrevious != null && beforePrevious[phase] > 0 && times[phase] >= NOISE_FLOOR
+                && exponent(times[phase], beforePrevious[phase], 2) > threshold;
+            cell += String.format(" (^%.2f)%s", exponent, superLinear ? " !" : "  ");
+            if (superLinear) {
+              flagged.add(String.format("%s %s grows as size^%.2f up to size %d", shape, PHASES[phase],
+                  exponent(times[phase], beforePrevious[phase], 2), size));
+            }
+          } else {
+            cell += "           ";
+          }
+          row.append(String.format("%22s", cell));
+        }
+        System.out.println(row);
+        beforePrevious = previous;
+        previous = times;
+        if (failed(times)) {
+          break;
+        }
+      }
+      System.out.println();
+    }
+
+    if (flagged.isEmpty()) {
+      System.out.println("No super-linear growth found.");
+      return;
+    }
+    System.out.println("Flagged:");
+    for (String it : flagged) {
+      System.out.println("  " + it);
+    }
+    System.exit(1);
+  }
+
+  /**
+   * @return The exponent e for which time = earlier * 2^(doublings * e).
+   */
+  private static double exponent(long time, long earlier, int doublings) {
+    return Math.log((double) time / earlier) / Math.log(2) / doublings;
+  }
+
+  /**
+   * @return The best time of each phase over REPETITIONS runs, in nanoseconds; -1 for a phase that failed, and for
+   *         every phase after it.
+   */
+  private static long[] best(ProgramGenerator.Shape shape, int size) {
+    long[] best = {Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE};
+    for (int i = 0; i < REPETITIONS; i++) {
+      long[] times = time(shape, size);
+      for (int phase = 0; phase < PHASES.length; phase++) {
+        best[phase] = times[phase] < 0 ? -1 : Math.min(best[phase], times[phase]);
+      }
+      if (failed(times)) {
+        break;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * @return The time each phase took to run the program of shape and size once, in nanoseconds; -1 for a phase that
+   *         failed, and for every phase after it.
+   */
+  private static long[] time(ProgramGenerator.Shape shape, int size) {
+    long[] times = {-1, -1, -1, -1};
+    char[] text = ProgramGenerator.generate(shape, size).toCharArray();
+    // start every run on an empty heap, so that a collection of garbage from earlier runs is not timed
+    System.gc();
+    try {
+      long start = THREADS.getCurrentThreadCpuTime();
+      List<Lexer.Token> tokens = Lexer.lex(new Lexer.State(text, text.length, new Position(0, 1, 1, shape.toString())));
+      times[0] = THREADS.getCurrentThreadCpuTime() - start;
+
+      start = THREADS.getCurrentThreadCpuTime();
+      Parser.Node ast = Parser.parse(tokens);
+      times[1] = THREADS.getCurrentThreadCpuTime() - start;
+
+      Interpreter.SymbolTable global = Main.makeGlobal();
+      start = THREADS.getCurrentThreadCpuTime();
+      TypeChecker.check(Resolver.resolve(ast), global);
+      times[2] = THREADS.getCurrentThreadCpuTime() - start;
+
+      start = THREADS.getCurrentThreadCpuTime();
+      Interpreter.interpret(global, ast);
+      times[3] = THREADS.getCurrentThreadCpuTime() - start;
+    } catch (RuntimeException | StackOverflowError e) {
+      // the phase that failed, and the ones after it, keep -1
+    }
+    return times;
+  }
+
+  private static boolean failed(long[] times) {
+    return times[PHASES.length - 1] < 0;
+  }
+}
@@ -0,0 +1,429 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A pass over a resolved Abstract Syntax Tree (AST) that works out the type of each expression from the declared
+ * types of variables and arguments, reports the mismatches it can prove before anything runs, and binds each call
+ * whose argument types it knows to the mangled name of its overload.
+ * <p>
+ * The checking is gradual: where a type cannot be known ahead of time (the value of a map, a function's own recursive
+ * call) it is left unknown, and the code that depends on it is checked when it runs, as before. A bound call skips
+ * the runtime check of its arguments entirely, which is sound because every type this pass knows is one the value is
+ * guaranteed to have: a variable declared with an initializer of unknown type has its type checked once, when it is
+ * declared, instead.
+ */
+public class TypeChecker {
+  private final Interpreter.SymbolTable global;
+  private final List<Scope> scopes = new ArrayList<>();
+  /**
+   * The type each function that has been checked returns; a function that is missing, or maps to null, returns a type
+   * that is not known ahead of time.
+   */
+  private final Map<Parser.FunctionDeclarationNode, Interpreter.Value.Type> returns = new IdentityHashMap<>();
+  private final List<String> functions = new ArrayList<>();
+
+  private TypeChecker(Interpreter.SymbolTable global) {
+    this.global = global;
+  }
+
+  /**
+   * Precondition: program has been resolved, and will run in global.
+   * @param program The program to check; the nodes under it are updated in place.
+   * @param global  The outermost Symbol Table, holding the builtins.
+   * @return program
+   * @throws IllegalStateException if the program is sure to fail with a type error.
+   */
+  public static Parser.Node check(Parser.Node program, Interpreter.SymbolTable global) {
+    new TypeChecker(global).visit(program);
+    return program;
+  }
+
+  /**
+   * @return The type of the values node evaluates to, or null if it is not known ahead of time.
+   */
+  private Interpreter.Value.Type visit(Parser.Node node) {
+    switch (node.type) {
+      case Integer:
+        return Interpreter.Value.Type.Integer;
+      case String:
+        return Interpreter.Value.Type.String;
+      case Interpolation:
+        visitAll(((Parser.InterpolationNode) node).parts);
+        return Interpreter.Value.Type.String;
+      case Block: {
+        Parser.BlockNode blockNode = (Parser.BlockNode) node;
+        if (!blockNode.scoped) {
+          return visitAll(blockNode.exprs);
+        }
+        enter(new Scope(), blockNode.exprs);
+        Interpreter.Value.Type type = visitAll(blockNode.exprs);
+        exit();
+        return type;
+      }
+      case FunctionDeclaration:
+        functionDeclaration((Parser.FunctionDeclarationNode) node);
+        return Interpreter.Value.Type.Void;
+      case VariableDeclaration: {
+        Parser.VariableDeclarationNode variableDeclarationNode = (Parser.VariableDeclarationNode) node;
+        Interpreter.Value.Type declared = typeOf(variableDeclarationNode.type);
+        Interpreter.Value.Type value = visit(variableDeclarationNode.value);
+        if (value == null) {
+          variableDeclarationNode.checkedType = declared;
+        } else if (value != declared) {
+          error("Tried to initialize " + declared + " variable " + variableDeclarationNode.id + " with a " + value);
+        }
+        return Interpreter.Value.Type.Void;
+      }
+      case VariableAccess:
+        return variableType(((Parser.VariableAccessNode) node).id);
+      case FunctionCall:
+        return functionCall((Parser.FunctionCallNode) node);
+      case Maths:
+        return maths((Parser.MathNode) node);
+      case Negation: {
+        Parser.NegationNode negationNode = (Parser.NegationNode) node;
+        Interpreter.Value.Type acting = visit(negationNode.acting);
+        if (acting != null && acting != Interpreter.Value.Type.Integer) {
+          String operator = negationNode.operation == Lexer.Token.Type.Not ? "!" : negationNode.operation == Lexer.Token.Type.Sub ? "-" : "+";
+          error("Tried to do " + operator + acting);
+        }
+        return Interpreter.Value.Type.Integer;
+      }
+      case Index: {
+        Interpreter.Value.Type target = visit(((Parser.IndexNode) node).target);
+        Interpreter.Value.Type index = visit(((Parser.IndexNode) node).index);
+        if (target == Interpreter.Value.Type.Array || target == Interpreter.Value.Type.List) {
+          if (index != null && index != Interpreter.Value.Type.Integer) {
+            error("Tried to do " + target + "[" + index + "]");
+          }
+          return Interpreter.Value.Type.Integer;
+        } else if (target != null && target != Interpreter.Value.Type.Map) {
+          error("Tried to do " + target + "[" + index + "]");
+        }
+        return null;
+      }
+      case If: {
+        Parser.IfNode ifNode = (Parser.IfNode) node;
+        Set<Interpreter.Value.Type> types = new HashSet<>();
+        for (Pair<Parser.Node, Parser.Node> branch : ifNode.conditions) {
+          visit(branch.a);
+          types.add(visit(branch.b));
+        }
+        // with no else, the if statement is Void when no branch is taken
+        types.add(ifNode.otherwise == null ? Interpreter.Value.Type.Void : visit(ifNode.otherwise));
+        return types.size() == 1 ? types.iterator().next() : null;
+      }
+      case For:
+        visit(((Parser.ForNode) node).condition);
+        visit(((Parser.ForNode) node).body);
+        return Interpreter.Value.Type.Void;
+      case ForIn: {
+        Parser.ForInNode forInNode = (Parser.ForInNode) node;
+        Interpreter.Value.Type iterable = visit(forInNode.iterable);
+        if (iterable != null && iterable != Interpreter.Value.Type.Generator) {
+          error("Tried to loop over a " + iterable);
+        }
+        Scope scope = new Scope();
+        // the values of a generator can be of any type
+        scope.declare(forInNode.id, (Interpreter.Value.Type) null);
+        List<Parser.Node> body = ((Parser.BlockNode) forInNode.body).exprs;
+        enter(scope, body);
+        visitAll(body);
+        exit();
+        return Interpreter.Value.Type.Void;
+      }
+      case RangeFor: {
+        Parser.RangeForNode rangeForNode = (Parser.RangeForNode) node;
+        Interpreter.Value.Type from = visit(rangeForNode.from);
+        Interpreter.Value.Type to = visit(rangeForNode.to);
+        if ((from != null && from != Interpreter.Value.Type.Integer) || (to != null && to != Interpreter.Value.Type.Integer)) {
+          error("Tried to count from a " + from + " to a " + to);
+        }
+        Scope scope = new Scope();
+        scope.declare(rangeForNode.id, Interpreter.Value.Type.Integer);
+        List<Parser.Node> body = ((Parser.BlockNode) rangeForNode.body).exprs;
+        enter(scope, body);
+        visitAll(body);
+        exit();
+        return Interpreter.Value.Type.Void;
+      }
+      case Yield:
+        visit(((Parser.YieldNode) node).value);
+        return Interpreter.Value.Type.Void;
+      case ParallelFor: {
+        Parser.ParallelForNode parallelForNode = (Parser.ParallelForNode) node;
+        visit(parallelForNode.from);
+        visit(parallelForNode.to);
+        Scope scope = new Scope();
+        scope.declare(parallelForNode.id, Interpreter.Value.Type.Integer);
+        List<Parser.Node> body = ((Parser.BlockNode) parallelForNode.body).exprs;
+        enter(scope, body);
+        Interpreter.Value.Type type = visitAll(body);
+        exit();
+        if (parallelForNode.reduction == null) {
+          return Interpreter.Value.Type.Void;
+        }
+        if (type != null && type != Interpreter.Value.Type.Integer) {
+          error("Tried to " + parallelForNode.reduction + " a " + type);
+        }
+        return Interpreter.Value.Type.Integer;
+      }
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * @return The type of the last of nodes, or Void if there are none.
+   */
+  private Interpreter.Value.Type visitAll(List<Parser.Node> nodes) {
+    Interpreter.Value.Type type = Interpreter.Value.Type.Void;
+    for (Parser.Node node : nodes) {
+      type = visit(node);
+    }
+    return type;
+  }
+
+  /**
+   * Checks the body of a function, once, and records the type it returns.
+   */
+  private void functionDeclaration(Parser.FunctionDeclarationNode node) {
+    if (returns.containsKey(node)) {
+      return;
+    }
+    returns.put(node, null);
+    if (!node.parsed()) {
+      // a body parsed lazily is only checked when it runs, so the type it returns is not known
+      return;
+    }
+    Scope scope = new Scope();
+    for (Pair<String, String> arg : node.args) {
+      scope.declare(arg.a, typeOf(arg.b));
+    }
+    List<Parser.Node> body = ((Parser.BlockNode) node.body()).exprs;
+    functions.add(node.id);
+    enter(scope, body);
+    Interpreter.Value.Type type = visitAll(body);
+    returns.put(node, node.generator ? Interpreter.Value.Type.Generator : type);
+    exit();
+    functions.remove(functions.size() - 1);
+  }
+
+  /**
+   * Binds the call to its overload if the types of all of its arguments are known.
+   * @return The type the overload returns, or null if it is not known ahead of time.
+   */
+  private Interpreter.Value.Type functionCall(Parser.FunctionCallNode node) {
+    List<Interpreter.Value.Type> args = new ArrayList<>();
+    for (Parser.Node arg : node.args) {
+      args.add(visit(arg));
+    }
+    if (args.contains(null)) {
+      return null;
+    }
+
+    StringBuilder mangled = new StringBuilder(node.toCall);
+    for (Interpreter.Value.Type arg : args) {
+      mangled.append(arg);
+    }
+    String id = mangled.toString();
+
+    // the innermost declaration is the one the call finds when it runs, as long as it has been declared by then
+    List<Interpreter.Value.Type> found = new ArrayList<>();
+    boolean declaredAsVariable = false;
+    for (int i = scopes.size() - 1; i >= 0; i--) {
+      Scope scope = scopes.get(i);
+      if (scope.functions.containsKey(id)) {
+        Parser.FunctionDeclarationNode function = scope.functions.get(id);
+        found.add(function == null ? null : returns.get(function));
+      } else if (scope.variables.containsKey(id)) {
+        declaredAsVariable |= found.isEmpty();
+        found.add(null);
+      }
+    }
+    Interpreter.Value value = global.values.get(id);
+    if (value instanceof Interpreter.BuiltinFunctionValue) {
+      found.add(((Interpreter.BuiltinFunctionValue) value).returns);
+    } else if (value != null) {
+      declaredAsVariable |= found.isEmpty() && !(value instanceof Interpreter.FunctionValue);
+      found.add(null);
+    }
+
+    if (found.isEmpty()) {
+      error("Tried to call " + id + ", which is not declared");
+    }
+    if (declaredAsVariable) {
+      // a variable holding a function is checked when it is called
+      return null;
+    }
+    node.bound = id;
+    // if more than one overload could be found first, the type they return is only known if they agree
+    return found.size() == 1 ? found.get(0) : null;
+  }
+
+  /**
+   * @return The type of the variable, if every declaration of it that an access could find agrees on one.
+   */
+  private Interpreter.Value.Type variableType(String id) {
+    Set<Interpreter.Value.Type> types = new HashSet<>();
+    for (int i = scopes.size() - 1; i >= 0; i--) {
+      Scope scope = scopes.get(i);
+      if (scope.variables.containsKey(id)) {
+        types.add(scope.variables.get(id));
+      }
+      if (scope.functions.containsKey(id)) {
+        types.add(Interpreter.Value.Type.Function);
+      }
+    }
+    Interpreter.Value value = global.values.get(id);
+    if (value != null) {
+      types.add(value.type);
+    }
+    if (types.isEmpty()) {
+      error("Tried to access " + id + ", which is not declared");
+    }
+    return types.size() == 1 ? types.iterator().next() : null;
+  }
+
+  private Interpreter.Value.Type maths(Parser.MathNode node) {
+    if (node.operation == Lexer.Token.Type.Assign && node.left.type == Parser.Node.Type.Index) {
+      visit(node.left);
+      visit(node.right);
+      return null;
+    }
+    Interpreter.Value.Type left = visit(node.left);
+    Interpreter.Value.Type right = visit(node.right);
+    boolean known = left != null && right != null;
+    Interpreter.Value.Type integer = Interpreter.Value.Type.Integer;
+    Interpreter.Value.Type string = Interpreter.Value.Type.String;
+
+    switch (node.operation) {
+      case Assign:
+        if (known && left != right) {
+          error("Tried to do " + left + " <- " + right);
+        }
+        return left != null ? left : right;
+      case Add:
+        if (left == string) {
+          if (right != null && right != string && right != integer) {
+            error("Tried to do " + left + " + " + right);
+          }
+          return string;
+        }
+        // an unknown left could be a string too
+        return left == null ? null : integerOperation(node, left, right);
+      case Mul:
+        if (left == string) {
+          if (right != null && right != integer) {
+            error("Tried to do " + left + " * " + right);
+          }
+          return string;
+        }
+        return left == null ? null : integerOperation(node, left, right);
+      case Sub:
+      case Div:
+      case Mod:
+      case Pow:
+        return integerOperation(node, left, right);
+      case EqualsEquals:
+      case NotEquals:
+      case LessThan:
+      case LessThanEquals:
+      case GreaterThan:
+      case GreaterThanEquals:
+        // only ints and strings can be compared, and only with their own kind
+        if ((left != null && left != integer && left != string) || (known && left != right)) {
+          error("Tried to compare " + left + " with " + right);
+        }
+        return integer;
+      case OrOr:
+      case AndAnd:
+        return integer;
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * @return Int, for an operation that only ints support; anything else fails it rather than giving another type.
+   */
+  private Interpreter.Value.Type integerOperation(Parser.MathNode node, Interpreter.Value.Type left, Interpreter.Value.Type right) {
+    if ((left != null && left != Interpreter.Value.Type.Integer) || (right != null && right != Interpreter.Value.Type.Integer)) {
+      error("Tried to do " + left + " " + node.operation + " " + right);
+    }
+    return Interpreter.Value.Type.Integer;
+  }
+
+  /**
+   * Enters scope, declaring everything that exprs declare directly in it, then checks the functions among those first,
+   * so that the types they return are known to the expressions that call them.
+   */
+  private void enter(Scope scope, List<Parser.Node> exprs) {
+    List<Parser.Node> declarations = Resolver.declarations(exprs);
+    for (Parser.Node declaration : declarations) {
+      if (declaration.type == Parser.Node.Type.VariableDeclaration) {
+        Parser.VariableDeclarationNode variable = (Parser.VariableDeclarationNode) declaration;
+        scope.declare(variable.id, typeOf(variable.type));
+      } else {
+        Parser.FunctionDeclarationNode function = (Parser.FunctionDeclarationNode) declaration;
+        StringBuilder mangled = new StringBuilder(function.id);
+        for (Pair<String, String> arg : function.args) {
+          mangled.append(typeOf(arg.b));
+        }
+        scope.declare(mangled.toString(), function);
+      }
+    }
+    scopes.add(scope);
+    for (Parser.Node declaration : declarations) {
+      if (declaration.type == Parser.Node.Type.FunctionDeclaration) {
+        functionDeclaration((Parser.FunctionDeclarationNode) declaration);
+      }
+    }
+  }
+
+  private void exit() {
+    scopes.remove(scopes.size() - 1);
+  }
+
+  private Interpreter.Value.Type typeOf(String name) {
+    try {
+      return Interpreter.Value.Type.fromString(name);
+    } catch (IllegalArgumentException e) {
+      error("Unknown type " + name);
+      return null;
+    }
+  }
+
+  /**
+   * @throws IllegalStateException, formatted "TypeChecker::check - <reason> in fun <function>"
+   */
+  private void error(String reason) {
+    String location = functions.isEmpty() ? "" : " in fun " + functions.get(functions.size() - 1);
+    throw new IllegalStateException("TypeChecker::check - " + reason + location);
+  }
+
+  /**
+   * The names declared directly in one scope. A name that is declared more than once, with different types or as
+   * different functions, maps to null.
+   */
+  private static class Scope {
+    public final Map<String, Interpreter.Value.Type> variables = new HashMap<>();
+    public final Map<String, Parser.FunctionDeclarationNode> functions = new HashMap<>();
+
+    public void declare(String id, Interpreter.Value.Type type) {
+      if (variables.containsKey(id) && variables.get(id) != type) {
+        type = null;
+      }
+      variables.put(id, type);
+    }
+
+    public void declare(String mangled, Parser.FunctionDeclarationNode function) {
+      functions.put(mangled, functions.containsKey(mangled) ? null : function);
+    }
+  }
+}
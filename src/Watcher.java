@@ -0,0 +1,136 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Watch mode: keeps a running program's top-level functions in step with its source file.
+ * <p>
+ * The file is polled from a daemon thread. When it changes, only the part that differs from the last version is
+ * handed to the Document, which re-lexes and re-parses just the items around it. Each function declaration among the
+ * re-parsed items is then applied to the global Symbol Table at the next safepoint of the thread running the
+ * program's top level (never that of a parallel for loop or a spawned task), all of them at once: a function
+ * that already exists is redefined in place, so that every reference to it (including the ones cached by Symbol
+ * Tables) sees the new version, while calls already running finish on the old one; a function with a new name or new
+ * argument types is added. The rest of the program, top-level statements included, is not run again, so the program
+ * keeps all of its state.
+ */
+public class Watcher implements Runnable {
+  private final Path path;
+  private final Document document;
+  private final Interpreter.SymbolTable global;
+  private final long intervalMillis;
+  private FileTime lastModified;
+
+  /**
+   * @param path           The source file of the running program.
+   * @param document       The program, as it was when it started running.
+   * @param global         The Symbol Table that the program's top-level functions are declared in.
+   * @param intervalMillis How long to wait between checks of the file.
+   * @param lastModified   The modification time of the file, read before document was, so that a change made while
+   *                       it was being read is picked up.
+   */
+  public Watcher(Path path, Document document, Interpreter.SymbolTable global, long intervalMillis, FileTime lastModified) {
+    this.path = path;
+    this.document = document;
+    this.global = global;
+    this.intervalMillis = intervalMillis;
+    this.lastModified = lastModified;
+  }
+
+  /**
+   * Runs the program at path with a Watcher reloading its functions until the program finishes.
+   * @param path The path of the program to run.
+   */
+  public static void watch(String path) throws IOException {
+    FileTime lastModified = Files.getLastModifiedTime(Paths.get(path));
+    Document document = new Document(path, Files.readString(Paths.get(path), StandardCharsets.UTF_8));
+    Interpreter.SymbolTable global = Main.makeGlobal();
+    // reloads are applied by this thread, so that they never race the threads of parallel for loops or spawned tasks
+    Interpreter.runSafepointsOn(Thread.currentThread());
+    // the items to run are copied before the watcher starts, so that it cannot edit them first; a change made since
+    // lastModified was read is reloaded by its first check
+    List<Document.Item> items = new ArrayList<>(document.items());
+    Thread thread = new Thread(new Watcher(Paths.get(path), document, global, 250, lastModified), "watcher");
+    thread.setDaemon(true);
+    thread.start();
+    // the items are run straight in the global Symbol Table, so that the top-level functions are declared there
+    for (Document.Item item : items) {
+      Interpreter.interpret(global, item.node);
+    }
+  }
+
+  @Override
+  public void run() {
+    while (!Thread.currentThread().isInterrupted()) {
+      try {
+        Thread.sleep(intervalMillis);
+        FileTime modified = Files.getLastModifiedTime(path);
+        if (!modified.equals(lastModified)) {
+          lastModified = modified;
+          reload(Files.readString(path, StandardCharsets.UTF_8));
+        }
+      } catch (InterruptedException e) {
+        return;
+      } catch (IOException | RuntimeException e) {
+        // a file caught half-written or a typo should not end the program; the next save is tried again
+        System.err.println("watch: reload of " + path + " failed: " + e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Brings the document in line with text and queues the functions that were re-parsed to be applied.
+   * @param text The new text of the source file.
+   * @throws IllegalStateException if text is not a well-formed program; nothing is applied in that case.
+   */
+  public void reload(String text) {
+    text = text.replace("\r\n", "\n");
+    String old = document.text();
+    int prefix = 0;
+    int maxPrefix = Math.min(old.length(), text.length());
+    while (prefix < maxPrefix && old.charAt(prefix) == text.charAt(prefix)) {
+      prefix++;
+    }
+    if (prefix == old.length() && prefix == text.length()) {
+      return;
+    }
+    int suffix = 0;
+    int maxSuffix = maxPrefix - prefix;
+    while (suffix < maxSuffix && old.charAt(old.length() - 1 - suffix) == text.charAt(text.length() - 1 - suffix)) {
+      suffix++;
+    }
+
+    List<Document.Item> reparsed = document.edit(prefix, old.length() - suffix, text.substring(prefix, text.length() - suffix));
+
+    // the FunctionValues are made here rather than at the safepoint, so that a bad argument type fails the reload
+    List<Interpreter.FunctionValue> functions = new ArrayList<>();
+    for (Document.Item item : reparsed) {
+      if (item.node.type == Parser.Node.Type.FunctionDeclaration) {
+        functions.add(new Interpreter.FunctionValue((Parser.FunctionDeclarationNode) item.node, global));
+      }
+    }
+    if (!functions.isEmpty()) {
+      Interpreter.runAtSafepoint(() -> apply(functions));
+    }
+  }
+
+  /**
+   * Precondition: Called at a safepoint.
+   * @param functions The functions to apply to the global Symbol Table.
+   */
+  private void apply(List<Interpreter.FunctionValue> functions) {
+    for (Interpreter.FunctionValue function : functions) {
+      Interpreter.Value existing = global.values.get(function.id);
+      if (existing instanceof Interpreter.FunctionValue) {
+        ((Interpreter.FunctionValue) existing).redefine(function);
+      } else {
+        global.add(function.id, function);
+      }
+    }
+  }
+}